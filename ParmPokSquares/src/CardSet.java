@@ -0,0 +1,246 @@
+import java.util.Arrays;
+
+/**
+ * CardSet - Utility methods for sets of cards represented as primitive <code>long</code> bit masks.
+ * Bit <code>card.getCardId()</code> is set for each card in the set, so that the 52 bits follow the same "suit-major"
+ * ordering as card identification numbers: bits 0 through 12 hold the ranks A, 2, ..., K of the first suit, bits 13
+ * through 25 hold those of the second suit, and so on.
+ * Within a set, each suit thus has a 13-bit rank mask with bit r set for each rank r of that suit in the set.
+ * Rank multiplicities, flushes and straights may then be computed with a few bit operations and table lookups
+ * rather than loops over count arrays.
+ */
+public class CardSet {
+
+	/**
+	 * the empty card set
+	 */
+	public static final long EMPTY = 0L;
+	/**
+	 * mask of the rank bits of a single suit
+	 */
+	public static final int RANK_BITS = (1 << Card.NUM_RANKS) - 1;
+	/**
+	 * rank mask of a royal (ace-high) straight: T, J, Q, K, A
+	 */
+	public static final int ROYAL_RANKS = 0x1E01;
+	/**
+	 * straight table flag: the ranks (all distinct) form a straight, or the start of one
+	 */
+	public static final int STRAIGHT = 1;
+	/**
+	 * straight table flag: the ranks (all distinct) are all royal straight ranks
+	 */
+	public static final int ROYAL = 2;
+	/**
+	 * straight table flag: the ranks (all distinct) span at most five ranks with ace low
+	 */
+	public static final int INSIDE_STRAIGHT = 4;
+
+	private static final byte[] straightFlags = new byte[1 << Card.NUM_RANKS]; // straight table flags indexed by rank mask
+
+	static {
+		// Straight flags follow the rules of PokerHand (5 cards) and OurPokerHand (2 to 5 cards). For n distinct
+		// ranks, a straight is a run of n ranks starting at rank T or lower, or a run of n ranks ending at ace high.
+		for (int rankMask = 0; rankMask < straightFlags.length; rankMask++) {
+			int n = Integer.bitCount(rankMask);
+			if (n < 2 || n > 5)
+				continue;
+			int run = (1 << n) - 1;
+			int low = Integer.numberOfTrailingZeros(rankMask);
+			int high = 31 - Integer.numberOfLeadingZeros(rankMask);
+			int flags = 0;
+			if ((low <= Card.NUM_RANKS - 4 && rankMask == run << low)
+					|| rankMask == (1 | ((run >>> 1) << (Card.NUM_RANKS - n + 1))))
+				flags |= STRAIGHT;
+			if ((rankMask & ~ROYAL_RANKS) == 0)
+				flags |= ROYAL;
+			if (high - low <= 4)
+				flags |= INSIDE_STRAIGHT;
+			straightFlags[rankMask] = (byte) flags;
+		}
+	}
+
+	/**
+	 * Return the set with the given card added.
+	 * @param set card set
+	 * @param card card to add
+	 * @return the set with the given card added
+	 */
+	public static long add(long set, Card card) {
+		return set | (1L << card.getCardId());
+	}
+
+	/**
+	 * Return the set with the given card removed.
+	 * @param set card set
+	 * @param card card to remove
+	 * @return the set with the given card removed
+	 */
+	public static long remove(long set, Card card) {
+		return set & ~(1L << card.getCardId());
+	}
+
+	/**
+	 * Return whether or not the set contains the given card.
+	 * @param set card set
+	 * @param card card
+	 * @return whether or not the set contains the given card
+	 */
+	public static boolean contains(long set, Card card) {
+		return (set & (1L << card.getCardId())) != 0;
+	}
+
+	/**
+	 * Return the set of the cards in the given Card array (possibly with null values).
+	 * @param hand Card array which may contain null values
+	 * @return the set of the non-null cards in the given array
+	 */
+	public static long of(Card[] hand) {
+		long set = EMPTY;
+		for (Card card : hand)
+			if (card != null)
+				set |= 1L << card.getCardId();
+		return set;
+	}
+
+	/**
+	 * Return the Cards of the given set in increasing order of card identification number.
+	 * @param set card set
+	 * @return array of the Cards of the given set
+	 */
+	public static Card[] toArray(long set) {
+		Card[] cards = new Card[size(set)];
+		for (int i = 0; set != 0; i++, set &= set - 1)
+			cards[i] = Card.getCard(Long.numberOfTrailingZeros(set));
+		return cards;
+	}
+
+	/**
+	 * Return the number of cards in the set.
+	 * @param set card set
+	 * @return the number of cards in the set
+	 */
+	public static int size(long set) {
+		return Long.bitCount(set);
+	}
+
+	/**
+	 * Return the rank mask of the cards of the given suit in the set.
+	 * @param set card set
+	 * @param suit suit in range [0, Card.NUM_SUITS - 1]
+	 * @return the 13-bit rank mask of the given suit
+	 */
+	public static int getSuitRanks(long set, int suit) {
+		return (int) (set >>> (suit * Card.NUM_RANKS)) & RANK_BITS;
+	}
+
+	/**
+	 * Return the mask of suits (bit s for suit s) occurring in the set.
+	 * @param set card set
+	 * @return the 4-bit suit mask of the set
+	 */
+	public static int getSuitMask(long set) {
+		int suitMask = 0;
+		for (int suit = 0; suit < Card.NUM_SUITS; suit++)
+			if (getSuitRanks(set, suit) != 0)
+				suitMask |= 1 << suit;
+		return suitMask;
+	}
+
+	/**
+	 * Return whether or not the set is non-empty with all cards in one suit.
+	 * @param set card set
+	 * @return whether or not the set is non-empty with all cards in one suit
+	 */
+	public static boolean isSameSuit(long set) {
+		int suitMask = getSuitMask(set);
+		return suitMask != 0 && (suitMask & (suitMask - 1)) == 0;
+	}
+
+	/**
+	 * Return the mask of ranks occurring in the set at least the given number of times.
+	 * @param set card set
+	 * @param multiplicity minimum number of occurrences in range [1, Card.NUM_SUITS]
+	 * @return the 13-bit mask of ranks occurring at least the given number of times
+	 */
+	public static int getRankMask(long set, int multiplicity) {
+		int s0 = getSuitRanks(set, 0), s1 = getSuitRanks(set, 1), s2 = getSuitRanks(set, 2), s3 = getSuitRanks(set, 3);
+		switch (multiplicity) {
+		case 1:
+			return s0 | s1 | s2 | s3;
+		case 2:
+			return (s0 & s1) | (s0 & s2) | (s0 & s3) | (s1 & s2) | (s1 & s3) | (s2 & s3);
+		case 3:
+			return (s0 & s1 & (s2 | s3)) | (s2 & s3 & (s0 | s1));
+		default:
+			return s0 & s1 & s2 & s3;
+		}
+	}
+
+	/**
+	 * Return the mask of ranks occurring in the set.
+	 * @param set card set
+	 * @return the 13-bit rank mask of the set
+	 */
+	public static int getRankMask(long set) {
+		return getRankMask(set, 1);
+	}
+
+	/**
+	 * Return the straight table flags (STRAIGHT, ROYAL, INSIDE_STRAIGHT) for the given mask of 2 to 5 distinct ranks.
+	 * Flags are relative to the number of ranks in the mask, e.g. a 3-rank mask is a STRAIGHT if it may begin a
+	 * straight as three consecutive ranks.
+	 * @param rankMask 13-bit rank mask
+	 * @return straight table flags for the given rank mask
+	 */
+	public static int getStraightFlags(int rankMask) {
+		return straightFlags[rankMask];
+	}
+
+	/**
+	 * Return a String representation of the given set.
+	 * @param set card set
+	 * @return a String representation of the given set
+	 */
+	public static String toString(long set) {
+		return Arrays.toString(toArray(set));
+	}
+
+	/**
+	 * Check the card set classifications of PokerHand and OurPokerHand against their Card array classifications
+	 * for all hands of at most five cards, printing the number of mismatches.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		Card[] deck = Card.getAllCards();
+		Card[] hand = new Card[PokerSquares.SIZE];
+		int[] indices = new int[PokerSquares.SIZE];
+		for (int numCards = 0; numCards <= PokerSquares.SIZE; numCards++) {
+			long numHands = 0, numMismatches = 0;
+			for (int i = 0; i < numCards; i++)
+				indices[i] = i;
+			while (true) {
+				Arrays.fill(hand, null);
+				for (int i = 0; i < numCards; i++)
+					hand[i] = deck[indices[i]];
+				long set = of(hand);
+				numHands++;
+				if (PokerHand.getPokerHand(set) != PokerHand.getPokerHand(hand)
+						|| OurPokerHand.getPokerHand(set) != OurPokerHand.getPokerHand(hand)) {
+					if (numMismatches++ == 0)
+						System.out.println("Mismatch: " + toString(set));
+				}
+				// advance to the next combination of card indices
+				int i = numCards - 1;
+				while (i >= 0 && indices[i] == Card.NUM_CARDS - numCards + i)
+					i--;
+				if (i < 0)
+					break;
+				indices[i]++;
+				for (int j = i + 1; j < numCards; j++)
+					indices[j] = indices[j - 1] + 1;
+			}
+			System.out.printf("%d-card hands: %d, mismatches: %d\n", numCards, numHands, numMismatches);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+import java.util.SplittableRandom;
+
+/**
+ * DealCorpus - A fixed sample of Poker Squares games for comparing hand
+ * values (or other players) with common random numbers: the 25 cards dealt
+ * in each game, and the seed of the pseudorandom number generator breaking
+ * the ties of its plays.
+ *
+ * Candidates evaluated on the same games of a corpus play the same deals
+ * with the same tie-breaking streams, so the difference of their scores
+ * reflects their plays rather than their luck, and far fewer games rank them
+ * reliably than with independent deals (see main). A corpus is immutable
+ * once created, so threads may share it.
+ */
+public class DealCorpus {
+
+    private static final int NUM_POS = PokerSquares.SIZE * PokerSquares.SIZE; // number of cards dealt per game
+    private final Card[][] deals; // cards dealt in each game, in order
+    private final long[] seeds; // tie-breaking generator seed of each game
+
+    /**
+     * Create a corpus of the given number of games, dealt uniformly at random
+     * by the given pseudorandom number generator.
+     *
+     * @param numGames number of games
+     * @param random pseudorandom number generator of the deals and seeds
+     */
+    public DealCorpus(int numGames, SplittableRandom random) {
+        deals = new Card[numGames][NUM_POS];
+        seeds = new long[numGames];
+        Card[] deck = Card.getAllCards();
+        for (int game = 0; game < numGames; game++) {
+            // partial Fisher-Yates shuffle of the deck (uniform from any permutation)
+            for (int i = 0; i < NUM_POS; i++) {
+                int j = i + random.nextInt(deck.length - i);
+                Card card = deck[j];
+                deck[j] = deck[i];
+                deck[i] = card;
+                deals[game][i] = card;
+            }
+            seeds[game] = random.nextLong();
+        }
+    }
+
+    /**
+     * Return the number of games of the corpus.
+     *
+     * @return the number of games
+     */
+    public int size() {
+        return deals.length;
+    }
+
+    /**
+     * Return the cards dealt in the given game, in order. The array is the
+     * corpus's own and must not be modified.
+     *
+     * @param game game index
+     * @return the 25 cards dealt
+     */
+    public Card[] getDeal(int game) {
+        return deals[game];
+    }
+
+    /**
+     * Return a new tie-breaking pseudorandom number generator of the given
+     * game, producing the same stream on every call.
+     *
+     * @param game game index
+     * @return the tie-breaking generator of the game
+     */
+    public SplittableRandom getTieBreaks(int game) {
+        return new SplittableRandom(seeds[game]);
+    }
+
+    /**
+     * Compare the OurPlayer initial American hand values with a perturbation
+     * of them, reporting the mean and standard deviation of their score
+     * difference over batches of 50 games, dealt independently for each
+     * candidate and from a common corpus.
+     *
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        int numBatches = 200, numGames = 50;
+        OurPlayer player = new OurPlayer(NUM_POS, 0);
+        player.setPointSystem(PokerSquaresPointSystem.getAmericanPointSystem(), 0);
+        HandValues base = player.handVals;
+        HandValues perturbed = base.deepClone();
+        for (int turn = 0; turn < NUM_POS; turn += 10) {
+            perturbed.put(turn, OurPokerHand.FLUSH4, perturbed.get(turn, OurPokerHand.FLUSH4) + 8);
+        }
+        SplittableRandom random = new SplittableRandom(0);
+        String[] names = {"independent deals", "common corpus"};
+        for (int common = 0; common < 2; common++) {
+            double sum = 0, sumSquares = 0;
+            for (int b = 0; b < numBatches; b++) {
+                DealCorpus corpus = new DealCorpus(numGames, random);
+                DealCorpus other = common == 1 ? corpus : new DealCorpus(numGames, random);
+                double difference = player.evaluateHandValues(perturbed, corpus, 0, numGames)
+                        - player.evaluateHandValues(base, other, 0, numGames);
+                sum += difference;
+                sumSquares += difference * difference;
+            }
+            double mean = sum / numBatches;
+            System.out.printf("%s: score difference %.3f, standard deviation %.3f\n", names[common], mean,
+                    Math.sqrt(sumSquares / numBatches - mean * mean));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.SplittableRandom;
+
+/**
+ * ExpectimaxPlayer - a depth-limited expectimax search implementation of the
+ * player interface for PokerSquares. Each play of the dealt card (one per
+ * class of equivalent empty positions, see getCandidatePlays) is valued by
+ * the expected value of the best play of each next card, and so on to the
+ * search depth. Chance nodes average over a sample of the undealt cards of at
+ * most the given branching factor (all undealt cards when fewer remain), and
+ * the sample of a chance node is shared by all the plays leading to it, so
+ * that plays are compared on common draws. Leaves are valued by the OurPlayer
+ * rollout table of their ply (the hand value heuristic, or the value network
+ * if set; point system scores once the grid is full).
+ *
+ * Search deepens iteratively, one ply at a time, until the time allotted to
+ * the move runs out (checked every few nodes by the OurPlayer TimeBudget),
+ * and plays the best play of the deepest completed search.
+ * Node state lives in the per-ply arrays of OurPlayer (plays, simDeck,
+ * legalPlayLists, GridLines) and a per-ply array of chance samples, so the
+ * search allocates no memory.
+ */
+public class ExpectimaxPlayer extends OurPlayer implements PokerSquaresPlayer {
+
+    private static final int DEFAULT_DEPTH_LIMIT = PokerSquares.SIZE * PokerSquares.SIZE; // search through game end
+    private int branchingFactor = 6; // maximum number of cards sampled at each chance node
+    private Card[][] chanceCards; // cards sampled at the chance node of each ply (indexed by numPlays)
+    private int[] numChanceCards = new int[NUM_POS]; // number of cards sampled at the chance node of each ply
+    private int[] rootPlays = new int[NUM_POS]; // candidate plays of the dealt card
+    private boolean aborted; // whether or not the current search was abandoned
+    private int searchDepth; // depth of the deepest completed search of the last decision
+
+    /**
+     * Create an expectimax player that searches up to 25 plies with branching
+     * factor 6.
+     */
+    public ExpectimaxPlayer() {
+        this(DEFAULT_DEPTH_LIMIT, 6);
+    }
+
+    /**
+     * Create an expectimax player that searches up to the given depth with the
+     * given chance node branching factor.
+     *
+     * @param depthLimit maximum search depth in plies (plays)
+     * @param branchingFactor maximum number of cards sampled at each chance
+     * node
+     */
+    public ExpectimaxPlayer(int depthLimit, int branchingFactor) {
+        super(depthLimit);
+        setBranchingFactor(branchingFactor);
+    }
+
+    /**
+     * Create an expectimax player that searches up to the given depth with the
+     * given chance node branching factor, with pseudorandom numbers generated
+     * from the given seed.
+     *
+     * @param depthLimit maximum search depth in plies (plays)
+     * @param branchingFactor maximum number of cards sampled at each chance
+     * node
+     * @param seed pseudorandom number generator seed
+     */
+    public ExpectimaxPlayer(int depthLimit, int branchingFactor, long seed) {
+        super(depthLimit, seed);
+        setBranchingFactor(branchingFactor);
+    }
+
+    private void setBranchingFactor(int branchingFactor) {
+        this.branchingFactor = Math.max(1, branchingFactor);
+        chanceCards = new Card[NUM_POS][this.branchingFactor];
+    }
+
+    /**
+     * Return the depth of the deepest search completed for the last decision.
+     *
+     * @return the depth in plies of the deepest completed search
+     */
+    public int getSearchDepth() {
+        return searchDepth;
+    }
+
+    /* (non-Javadoc)
+     * @see PokerSquaresPlayer#getPlay(Card, long)
+     */
+    @Override
+    public int[] getPlay(Card card, long millisRemaining) {
+        // match simDeck to actual play event
+        dealCard(card);
+
+        if (numPlays < 24) { // not the forced last play
+            int remainingPlays = NUM_POS - numPlays;
+            timeBudget.start(TimeBudget.millisToNanos(millisRemaining) / remainingPlays); // dividing time evenly with future getPlay() calls
+            int numCandidates = getCandidatePlays(rootPlays);
+            int bestPlay = rootPlays[0];
+            searchDepth = 0;
+            aborted = false;
+            // deepen one ply at a time while time remains, through the last play of the game at most
+            for (int depth = 1; numCandidates > 1 && depth <= Math.min(depthLimit, remainingPlays) && !aborted; depth++) {
+                sampleChanceCards(depth);
+                double maxValue = Double.NEGATIVE_INFINITY;
+                int depthBestPlay = bestPlay;
+                int numBestPlays = 0; // number of plays yielding maxValue (for reservoir sampling of ties)
+                for (int i = 0; i < numCandidates && !aborted; i++) {
+                    int play = rootPlays[i];
+                    double value = getPlayValue(card, play, depth);
+                    if (value > maxValue) {
+                        maxValue = value;
+                        depthBestPlay = play;
+                        numBestPlays = 1;
+                    } else if (value == maxValue && random.nextInt(++numBestPlays) == 0) {
+                        depthBestPlay = play;
+                    }
+                }
+                if (!aborted) { // (the depth 1 search, with no chance nodes, is always completed)
+                    bestPlay = depthBestPlay;
+                    searchDepth = depth;
+                }
+            }
+            selectPlay(bestPlay);
+        }
+        int[] playPos = {plays[numPlays] / SIZE, plays[numPlays] % SIZE}; // decode it into row and column
+        makePlay(card, playPos[0], playPos[1]); // make the chosen play (not undoing this time)
+        return playPos; // return the chosen play
+    }
+
+    /**
+     * Sample the cards of the chance node following the current play, if the
+     * search continues beyond it.
+     *
+     * @param depth remaining search depth, including the current play
+     */
+    private void sampleChanceCards(int depth) {
+        int ply = numPlays + 1; // plies of the chance node
+        if (depth <= 1 || ply >= NUM_POS) {
+            return;
+        }
+        int numUndealt = NUM_CARDS - ply;
+        int numSamples = Math.min(branchingFactor, numUndealt);
+        // partial Fisher-Yates shuffle of the undealt cards (simDeck from index ply onward)
+        for (int i = 0; i < numSamples; i++) {
+            int j = ply + i + (numSamples == numUndealt ? 0 : random.nextInt(numUndealt - i));
+            Card sample = simDeck[j];
+            Card swapped = simDeck[ply + i];
+            simDeck[j] = swapped;
+            deckIndex[swapped.getCardId()] = j;
+            simDeck[ply + i] = sample;
+            deckIndex[sample.getCardId()] = ply + i;
+            chanceCards[ply][i] = sample;
+        }
+        numChanceCards[ply] = numSamples;
+    }
+
+    /**
+     * Return the value of playing the given dealt card at the given empty
+     * position, searching to the given depth. The chance node following the
+     * play must already be sampled.
+     *
+     * @param card card dealt (at simDeck index numPlays)
+     * @param play row-major position of the play
+     * @param depth remaining search depth, including this play
+     * @return the expected value of the play
+     */
+    private double getPlayValue(Card card, int play, int depth) {
+        if (depth == 1 || numPlays == NUM_POS - 1) { // leaf: only the row and column of the play change value
+            int[] keyValues = plyTables[numPlays]; // (the rollout table of the play: network, hand values or scores)
+            int row = play / SIZE, col = SIZE + play % SIZE;
+            return getLinesValue(keyValues) + keyValues[lines.getKeyWith(row, card)] - keyValues[lines.getHandKey(row)]
+                    + keyValues[lines.getKeyWith(col, card)] - keyValues[lines.getHandKey(col)];
+        }
+        makePlay(card, play / SIZE, play % SIZE);
+        // chance node: average the best play of each sampled card
+        double total = 0;
+        int numSamples = numChanceCards[numPlays];
+        for (int k = 0; k < numSamples && !aborted; k++) {
+            Card next = chanceCards[numPlays][k];
+            dealCard(next);
+            total += getMaxValue(next, depth - 1);
+        }
+        undoPlay();
+        return total / numSamples;
+    }
+
+    /**
+     * Return the value of the best play of the given dealt card, searching to
+     * the given depth.
+     *
+     * @param card card dealt (at simDeck index numPlays)
+     * @param depth remaining search depth, including the play of the card
+     * @return the maximum expected value of the plays of the card
+     */
+    private double getMaxValue(Card card, int depth) {
+        if (!timeBudget.tick(1)) {
+            aborted = true;
+        }
+        int[] candidates = legalPlayLists[numPlays];
+        int numCandidates = getCandidatePlays(candidates);
+        sampleChanceCards(depth);
+        double maxValue = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numCandidates && !aborted; i++) {
+            maxValue = Math.max(maxValue, getPlayValue(card, candidates[i], depth));
+        }
+        return maxValue;
+    }
+
+    /* (non-Javadoc)
+     * @see PokerSquaresPlayer#getName()
+     */
+    @Override
+    public String getName() {
+        return "ExpectimaxPlayer" + depthLimit + "x" + branchingFactor;
+    }
+
+    /**
+     * Demonstrate ExpectimaxPlayer with the American point system, reporting
+     * the completed search depth of each decision under a 1-second move
+     * budget.
+     *
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        PokerSquaresPointSystem system = PokerSquaresPointSystem.getAmericanPointSystem();
+        System.out.println(system);
+        ExpectimaxPlayer player = new ExpectimaxPlayer(DEFAULT_DEPTH_LIMIT, 6, 0);
+        player.setPointSystem(system, 0);
+        player.init();
+        Card[] deck = Card.getAllCards();
+        SplittableRandom random = new SplittableRandom(0);
+        for (int i = deck.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Card tmp = deck[i];
+            deck[i] = deck[j];
+            deck[j] = tmp;
+        }
+        Card[][] grid = new Card[PokerSquares.SIZE][PokerSquares.SIZE];
+        for (int i = 0; i < DEFAULT_DEPTH_LIMIT; i++) {
+            long millisRemaining = 1000L * (DEFAULT_DEPTH_LIMIT - i); // 1 second per remaining play
+            int[] playPos = player.getPlay(deck[i], millisRemaining);
+            grid[playPos[0]][playPos[1]] = deck[i];
+            System.out.printf("Play %2d: %s at (%d, %d), search depth %d\n", i + 1, deck[i], playPos[0], playPos[1],
+                    player.getSearchDepth());
+        }
+        system.printGrid(grid);
+    }
+}
@@ -32,7 +32,7 @@ public class GAPlayer extends OurPlayer implements PokerSquaresPlayer {
     /**
      * Use genetic algorithm to adjust the partial hand values.
      */
-    protected void adjustHandVals(long endTime) {
+    protected void adjustHandVals() {
         int iter = 0;
 
         // Create initial population
@@ -49,20 +49,25 @@ public class GAPlayer extends OurPlayer implements PokerSquaresPlayer {
 //            System.out.println("Initial population " + i +": ");
 //            System.out.println(population.toString(i));
         }
-        long startLoopTime = System.currentTimeMillis();
-        endTime = endTime - 3000; // Shorten time for testing
+        timeBudget.setDeadline(timeBudget.getDeadline() - TimeBudget.millisToNanos(3000)); // Shorten time for testing
                 
+        HandValues[] members = new HandValues[popSize]; // members of the current generation
+        double[] fitness = new double[popSize]; // average simulated scores of the members
         // Generate new generations
-        while (System.currentTimeMillis() < endTime) {
+        while (timeBudget.hasTime()) {
             iter++;
             if (iter % 10 == 0) {
-                System.out.println(iter + "\t%time elapsed: " + 100 * (double) (System.currentTimeMillis() - startLoopTime) / (endTime - startLoopTime));
+                System.out.println(iter + "\t%time elapsed: " + 100 * timeBudget.getElapsedFraction());
                 System.out.println(population.toString(0));
             }
 
-            // Evaluate each member of this generation
+            // Evaluate each member of this generation on the same games (concurrently, see evaluateHandValues)
             for (int i = 0; i < popSize; i++) {
-                population.updateValue(i, evalPartialHands(population.get(i), 50));
+                members[i] = population.get(i);
+            }
+            evaluateHandValues(members, new DealCorpus(50, random), fitness);
+            for (int i = 0; i < popSize; i++) {
+                population.updateValue(i, fitness[i]);
             }
 
             // Sort
@@ -149,22 +154,6 @@ public class GAPlayer extends OurPlayer implements PokerSquaresPlayer {
         return result;
     }
 
-    private double evalPartialHands(HandValues values, int iter) {
-        HandValues original = handVals;
-        handVals = values;
-        int total = 0;
-        init();
-        for (int i = 0; i < iter; i++) {
-            int result = simGreedyPlay(25);
-            total += result;
-            //System.out.print("Play " + i + ": " + result + "; ");
-            init();
-        }
-        //System.out.println();
-        handVals = original;
-        return total / (double) iter;
-    }
-
     /* (non-Javadoc)
      * @see PokerSquaresPlayer#getName()
      */
@@ -0,0 +1,435 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * GameState - Compact immutable Poker Squares game state.
+ * The card in each of the 25 grid positions is packed as a 6-bit field (card identification number plus one, or zero
+ * for an empty position), ten fields to a <code>long</code>, in row-major position order. A CardSet mask of dealt
+ * cards (those placed in the grid, plus any drawn but not yet placed) completes the state.
+ * Each state carries a Zobrist hash that is updated incrementally by each transition, so that states may be snapshot,
+ * hashed, compared and shared between threads at the cost of a few <code>long</code> operations.
+ */
+public final class GameState {
+
+	private static final int SIZE = PokerSquares.SIZE; // number of rows/columns in square grid
+	private static final int NUM_POS = SIZE * SIZE; // number of positions in square grid
+	private static final int FIELD_BITS = 6; // bits per position field
+	private static final long FIELD_MASK = (1L << FIELD_BITS) - 1; // mask of a position field
+	private static final int FIELDS_PER_WORD = 10; // position fields per long
+	private static final long ZOBRIST_SEED = 0x5DEECE66DL; // fixed seed so that hashes are reproducible between runs
+	private static final long[] placeKeys = new long[NUM_POS * Card.NUM_CARDS]; // Zobrist keys indexed by position * NUM_CARDS + card id
+	private static final long[] dealtKeys = new long[Card.NUM_CARDS]; // Zobrist keys indexed by card id
+	private static final int RANK_MASK = (1 << Card.NUM_RANKS) - 1; // mask of the rank bits of one suit of a CardSet
+	private static final int[][] LINE_ORDERS = getPermutations(SIZE); // every order of the rows (or columns)
+
+	static {
+		Random random = new Random(ZOBRIST_SEED);
+		for (int i = 0; i < placeKeys.length; i++)
+			placeKeys[i] = random.nextLong();
+		for (int i = 0; i < dealtKeys.length; i++)
+			dealtKeys[i] = random.nextLong();
+	}
+
+	/**
+	 * the state of an empty grid with no cards dealt
+	 */
+	public static final GameState EMPTY = new GameState(0L, 0L, 0L, CardSet.EMPTY, 0L);
+
+	private final long cells0, cells1, cells2; // position fields 0-9, 10-19, and 20-24
+	private final long dealt; // CardSet of dealt cards
+	private final long hash; // Zobrist hash
+
+	private GameState(long cells0, long cells1, long cells2, long dealt, long hash) {
+		this.cells0 = cells0;
+		this.cells1 = cells1;
+		this.cells2 = cells2;
+		this.dealt = dealt;
+		this.hash = hash;
+	}
+
+	/**
+	 * Return the state of the given grid, in which the dealt cards are those in the grid.
+	 * @param grid 2D Card array representing play grid (with null values for empty positions)
+	 * @return the state of the given grid
+	 */
+	public static GameState of(Card[][] grid) {
+		long[] cells = new long[3];
+		long dealt = CardSet.EMPTY;
+		long hash = 0L;
+		for (int pos = 0; pos < NUM_POS; pos++) {
+			Card card = grid[pos / SIZE][pos % SIZE];
+			if (card != null) {
+				int cardId = card.getCardId();
+				cells[pos / FIELDS_PER_WORD] |= (long) (cardId + 1) << (FIELD_BITS * (pos % FIELDS_PER_WORD));
+				dealt |= 1L << cardId;
+				hash ^= placeKeys[pos * Card.NUM_CARDS + cardId] ^ dealtKeys[cardId];
+			}
+		}
+		return new GameState(cells[0], cells[1], cells[2], dealt, hash);
+	}
+
+	private long getWord(int word) {
+		return word == 0 ? cells0 : word == 1 ? cells1 : cells2;
+	}
+
+	private int getField(int pos) {
+		return (int) (getWord(pos / FIELDS_PER_WORD) >>> (FIELD_BITS * (pos % FIELDS_PER_WORD)) & FIELD_MASK);
+	}
+
+	/**
+	 * Return the state with the given field set.
+	 */
+	private GameState withField(int pos, int field, long dealt, long hash) {
+		int word = pos / FIELDS_PER_WORD;
+		int shift = FIELD_BITS * (pos % FIELDS_PER_WORD);
+		long cells = getWord(word) & ~(FIELD_MASK << shift) | (long) field << shift;
+		return new GameState(word == 0 ? cells : cells0, word == 1 ? cells : cells1, word == 2 ? cells : cells2, dealt, hash);
+	}
+
+	/**
+	 * Return the state after the given card is dealt (drawn but not yet placed).
+	 * @param card card dealt
+	 * @return the state with the given card dealt
+	 */
+	public GameState deal(Card card) {
+		int cardId = card.getCardId();
+		if ((dealt & (1L << cardId)) != 0)
+			return this;
+		return new GameState(cells0, cells1, cells2, dealt | (1L << cardId), hash ^ dealtKeys[cardId]);
+	}
+
+	/**
+	 * Return the state after the given card is placed at the given empty position. The card is dealt as well if it
+	 * was not already.
+	 * @param card card placed
+	 * @param row row of placement
+	 * @param col column of placement
+	 * @return the state with the given card placed
+	 */
+	public GameState play(Card card, int row, int col) {
+		int pos = row * SIZE + col;
+		if (getField(pos) != 0)
+			throw new IllegalArgumentException("Position (" + row + ", " + col + ") is occupied.");
+		int cardId = card.getCardId();
+		long newHash = hash ^ placeKeys[pos * Card.NUM_CARDS + cardId];
+		if ((dealt & (1L << cardId)) == 0)
+			newHash ^= dealtKeys[cardId];
+		return withField(pos, cardId + 1, dealt | (1L << cardId), newHash);
+	}
+
+	/**
+	 * Return the state after the card at the given position is removed from the grid and returned to the deck.
+	 * @param row row of removal
+	 * @param col column of removal
+	 * @return the state with the given position empty and its card undealt
+	 */
+	public GameState undoPlay(int row, int col) {
+		int pos = row * SIZE + col;
+		int field = getField(pos);
+		if (field == 0)
+			throw new IllegalArgumentException("Position (" + row + ", " + col + ") is empty.");
+		int cardId = field - 1;
+		return withField(pos, 0, dealt & ~(1L << cardId), hash ^ placeKeys[pos * Card.NUM_CARDS + cardId] ^ dealtKeys[cardId]);
+	}
+
+	/**
+	 * Return the card at the given position.
+	 * @param row row
+	 * @param col column
+	 * @return the card at the given position, or null if the position is empty
+	 */
+	public Card getCard(int row, int col) {
+		int field = getField(row * SIZE + col);
+		return field == 0 ? null : Card.getCard(field - 1);
+	}
+
+	/**
+	 * Return whether or not the given position is empty.
+	 * @param row row
+	 * @param col column
+	 * @return whether or not the given position is empty
+	 */
+	public boolean isEmpty(int row, int col) {
+		return getField(row * SIZE + col) == 0;
+	}
+
+	/**
+	 * Return the mask of occupied positions, with bit row * SIZE + col set for each occupied position (row, col).
+	 * @return the 25-bit mask of occupied positions
+	 */
+	public int getOccupied() {
+		int occupied = 0;
+		for (int pos = 0; pos < NUM_POS; pos++)
+			if (getField(pos) != 0)
+				occupied |= 1 << pos;
+		return occupied;
+	}
+
+	/**
+	 * Return the CardSet of dealt cards.
+	 * @return the CardSet of dealt cards
+	 */
+	public long getDealt() {
+		return dealt;
+	}
+
+	/**
+	 * Return the number of cards placed in the grid.
+	 * @return the number of cards placed in the grid
+	 */
+	public int getNumPlays() {
+		return Integer.bitCount(getOccupied());
+	}
+
+	/**
+	 * Return the Zobrist hash of this state.
+	 * @return the 64-bit Zobrist hash of this state
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Return the Zobrist key of the given card placed at the given position. The hash of a state in which every dealt
+	 * card is placed is the exclusive or of the placement keys of its cards, so such hashes may be maintained without
+	 * creating states.
+	 * @param cardId card id of the card placed
+	 * @param pos row-major position of the card
+	 * @return the 64-bit Zobrist key of the placement
+	 */
+	public static long getPlacementKey(int cardId, int pos) {
+		return placeKeys[pos * Card.NUM_CARDS + cardId] ^ dealtKeys[cardId];
+	}
+
+	/**
+	 * Return a hash of the canonical form of this state under permutation of rows, permutation of columns,
+	 * transposition and permutation of suits, all of which preserve the score of every completion of the grid.
+	 * The canonical form is the lexicographically least encoding of the grid over all row orders, column orders and
+	 * orientations, with suits relabeled in order of first appearance, followed by the ranks of the cards dealt but
+	 * not yet placed, by relabeled suit (suits absent from the grid labeled in order of those ranks). Only row and
+	 * column orders that sort the lines by their rank multisets (which every equivalence preserves) are searched.
+	 * Equivalent states have equal canonical forms, so inequivalent states share a hash only by 64-bit collision.
+	 * @return the 64-bit canonical hash of this state
+	 */
+	public long getCanonicalHash() {
+		int[] fields = new int[NUM_POS];
+		long placed = CardSet.EMPTY;
+		for (int pos = 0; pos < NUM_POS; pos++) {
+			fields[pos] = getField(pos);
+			if (fields[pos] != 0)
+				placed |= 1L << (fields[pos] - 1);
+		}
+		int[] unplacedRanks = new int[Card.NUM_SUITS]; // rank masks of the dealt cards not placed, by suit
+		for (int suit = 0; suit < Card.NUM_SUITS; suit++)
+			unplacedRanks[suit] = (int) ((dealt & ~placed) >>> (suit * Card.NUM_RANKS)) & RANK_MASK;
+		int[] code = new int[NUM_POS + Card.NUM_SUITS], best = new int[NUM_POS + Card.NUM_SUITS];
+		boolean found = false;
+		int[] labels = new int[Card.NUM_SUITS];
+		long[] rowSignatures = new long[SIZE], colSignatures = new long[SIZE];
+		for (int transpose = 0; transpose < 2; transpose++) {
+			for (int line = 0; line < SIZE; line++) {
+				rowSignatures[line] = getLineSignature(fields, line, transpose == 0);
+				colSignatures[line] = getLineSignature(fields, line, transpose == 1);
+			}
+			for (int[] rowOrder : LINE_ORDERS) {
+				if (!isSorted(rowSignatures, rowOrder))
+					continue;
+				for (int[] colOrder : LINE_ORDERS) {
+					if (!isSorted(colSignatures, colOrder))
+						continue;
+					// encode the grid in this order, comparing with the least code as we go
+					Arrays.fill(labels, -1);
+					int numLabels = 0;
+					int comparison = found ? 0 : -1; // sign of code - best over the code so far
+					for (int k = 0; k < NUM_POS && comparison <= 0; k++) {
+						int row = rowOrder[k / SIZE], col = colOrder[k % SIZE];
+						int field = fields[transpose == 0 ? row * SIZE + col : col * SIZE + row];
+						int value = 0;
+						if (field != 0) {
+							int suit = (field - 1) / Card.NUM_RANKS;
+							if (labels[suit] < 0)
+								labels[suit] = numLabels++;
+							value = 1 + (field - 1) % Card.NUM_RANKS * Card.NUM_SUITS + labels[suit];
+						}
+						code[k] = value;
+						if (comparison == 0 && value != best[k])
+							comparison = value < best[k] ? -1 : 1;
+					}
+					if (comparison > 0)
+						continue;
+					// label the suits absent from the grid in increasing order of their unplaced ranks
+					while (numLabels < Card.NUM_SUITS) {
+						int next = -1;
+						for (int suit = 0; suit < Card.NUM_SUITS; suit++)
+							if (labels[suit] < 0 && (next < 0 || unplacedRanks[suit] < unplacedRanks[next]))
+								next = suit;
+						labels[next] = numLabels++;
+					}
+					for (int suit = 0; suit < Card.NUM_SUITS; suit++)
+						code[NUM_POS + labels[suit]] = unplacedRanks[suit];
+					for (int k = NUM_POS; k < code.length && comparison == 0; k++)
+						if (code[k] != best[k])
+							comparison = code[k] < best[k] ? -1 : 1;
+					if (comparison < 0) {
+						int[] swap = best;
+						best = code;
+						code = swap;
+						found = true;
+					}
+				}
+			}
+		}
+		long canonicalHash = 0L;
+		for (int value : best)
+			canonicalHash = mix(canonicalHash * 31 + value);
+		return canonicalHash;
+	}
+
+	/**
+	 * Return a signature of the rank multiset of the cards of the given row or column, invariant under permutation of
+	 * the lines crossing it and of suits.
+	 */
+	private static long getLineSignature(int[] fields, int line, boolean isRow) {
+		long signature = 0L;
+		for (int k = 0; k < SIZE; k++) {
+			int field = fields[isRow ? line * SIZE + k : k * SIZE + line];
+			if (field != 0)
+				signature += 1L << (3 * ((field - 1) % Card.NUM_RANKS)); // (at most 4 cards of a rank)
+		}
+		return signature;
+	}
+
+	/**
+	 * Return whether or not the given order lists the lines in nondecreasing order of the given signatures.
+	 */
+	private static boolean isSorted(long[] signatures, int[] order) {
+		for (int i = 1; i < order.length; i++)
+			if (signatures[order[i - 1]] > signatures[order[i]])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Return every permutation of 0, ..., n - 1.
+	 */
+	private static int[][] getPermutations(int n) {
+		if (n == 0)
+			return new int[][] {{}};
+		int[][] shorter = getPermutations(n - 1);
+		int[][] permutations = new int[shorter.length * n][];
+		int count = 0;
+		for (int[] permutation : shorter)
+			for (int i = 0; i < n; i++) { // insert n - 1 at index i
+				int[] longer = new int[n];
+				System.arraycopy(permutation, 0, longer, 0, i);
+				longer[i] = n - 1;
+				System.arraycopy(permutation, i, longer, i + 1, n - 1 - i);
+				permutations[count++] = longer;
+			}
+		return permutations;
+	}
+
+	/**
+	 * Return a well-mixed 64-bit function of the given value (the SplitMix64 finalizer).
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Fill the given grid with the cards of this state.
+	 * @param grid 2D Card array to be filled (with null values for empty positions)
+	 */
+	public void toGrid(Card[][] grid) {
+		for (int row = 0; row < SIZE; row++)
+			for (int col = 0; col < SIZE; col++)
+				grid[row][col] = getCard(row, col);
+	}
+
+	/**
+	 * Return a new grid with the cards of this state.
+	 * @return 2D Card array with the cards of this state (with null values for empty positions)
+	 */
+	public Card[][] toGrid() {
+		Card[][] grid = new Card[SIZE][SIZE];
+		toGrid(grid);
+		return grid;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof GameState))
+			return false;
+		GameState state = (GameState) other;
+		return hash == state.hash && cells0 == state.cells0 && cells1 == state.cells1 && cells2 == state.cells2
+				&& dealt == state.dealt;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int row = 0; row < SIZE; row++) {
+			for (int col = 0; col < SIZE; col++) {
+				Card card = getCard(row, col);
+				sb.append(card == null ? "--" : card.toString()).append(col < SIZE - 1 ? " " : "\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Check random games: each incrementally hashed state must equal the state rebuilt from its grid, and undoing
+	 * every play must restore the empty state.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		Card[] deck = Card.getAllCards();
+		Card[][] grid = new Card[SIZE][SIZE];
+		int[] positions = new int[NUM_POS];
+		int numMismatches = 0;
+		int numGames = 10000;
+		for (int game = 0; game < numGames; game++) {
+			for (int i = deck.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				Card tmp = deck[i];
+				deck[i] = deck[j];
+				deck[j] = tmp;
+			}
+			for (int i = 0; i < NUM_POS; i++)
+				positions[i] = i;
+			GameState state = EMPTY;
+			for (int i = 0; i < NUM_POS; i++) {
+				int k = i + random.nextInt(NUM_POS - i);
+				int pos = positions[k];
+				positions[k] = positions[i];
+				positions[i] = pos;
+				state = state.deal(deck[i]).play(deck[i], pos / SIZE, pos % SIZE);
+				state.toGrid(grid);
+				if (!state.equals(of(grid)) || state.getNumPlays() != i + 1)
+					numMismatches++;
+			}
+			for (int i = NUM_POS - 1; i >= 0; i--)
+				state = state.undoPlay(positions[i] / SIZE, positions[i] % SIZE);
+			if (!state.equals(EMPTY) || state.getHash() != EMPTY.getHash())
+				numMismatches++;
+		}
+		System.out.println(numGames + " games, mismatches: " + numMismatches);
+	}
+}
@@ -1,6 +1,7 @@
 
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 /**
  * GreedyMCPlayer - a simple, greedy Monte Carlo implementation of the player
@@ -23,7 +24,7 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
     private final int SIZE = 5; // number of rows/columns in square grid
     private final int NUM_POS = SIZE * SIZE; // number of positions in square grid
     private final int NUM_CARDS = Card.NUM_CARDS; // number of cards in deck
-    private Random random = new Random(); // pseudorandom number generator for Monte Carlo simulation 
+    private SplittableRandom random; // pseudorandom number generator for Monte Carlo simulation (split for each candidate play)
     private int[] plays = new int[NUM_POS]; // positions of plays so far (index 0 through numPlays - 1) recorded as integers using row-major indices.
     // row-major indices: play (r, c) is recorded as a single integer r * SIZE + c (See http://en.wikipedia.org/wiki/Row-major_order)
     // From plays index [numPlays] onward, we maintain a list of yet unplayed positions.
@@ -36,11 +37,20 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
     // onward, we maintain a list of undealt cards for MC simulation.
     private int[][] legalPlayLists = new int[NUM_POS][NUM_POS]; // stores legal play lists indexed by numPlays (depth)
     // (This avoids constant allocation/deallocation of such lists during the greedy selections of MC simulations.)
+    private int[] deckIndex = new int[NUM_CARDS]; // simDeck index of each card, indexed by card id
+    private int[] playIndex = new int[NUM_POS]; // plays index of each position, indexed by row-major position
+    private int[] playScoreDeltas = new int[NUM_POS]; // score changes of greedy plays indexed by position
+    private int[] keyScores; // point system scores indexed by PokerHand hand key
+    private int rolloutsPerPlay = 0; // fixed number of simulations per candidate play (0 for time-limited simulation)
+    private RolloutKernel kernel = new RolloutKernel(32); // lockstep batches of simulations (null for one at a time by simGreedyPlay)
+    private int[][] plyTables = new int[NUM_POS][]; // simulation line value tables indexed by hand key, per ply (all point system scores)
+    private TimeBudget timeBudget = new TimeBudget(); // time of the current move, checked every few simulations
 
     /**
      * Create a Greedy Monte Carlo player that simulates greedy play to depth 2.
      */
     public GreedyMCPlayer() {
+        random = new SplittableRandom();
     }
 
     /**
@@ -51,6 +61,32 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
      */
     public GreedyMCPlayer(int depthLimit) {
         this.depthLimit = depthLimit;
+        random = new SplittableRandom();
+    }
+
+    /**
+     * Create a Greedy Monte Carlo player that simulates greedy play to a given
+     * depth limit, with pseudorandom numbers generated from the given seed.
+     *
+     * @param depthLimit depth limit for random greedy simulated play
+     * @param seed pseudorandom number generator seed
+     */
+    public GreedyMCPlayer(int depthLimit, long seed) {
+        this.depthLimit = depthLimit;
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Set a fixed number of Monte Carlo simulations per candidate play, in
+     * place of time-limited simulation, so that decisions depend only on the
+     * seed and games may be replayed exactly. Simulation time is not bounded
+     * in this mode.
+     *
+     * @param rolloutsPerPlay simulations per candidate play (0 for
+     * time-limited simulation, the default)
+     */
+    public void setRolloutsPerPlay(int rolloutsPerPlay) {
+        this.rolloutsPerPlay = Math.max(0, rolloutsPerPlay);
     }
 
     /* (non-Javadoc)
@@ -69,6 +105,11 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
         // (re)initialize list of play positions (row-major ordering)
         for (int i = 0; i < NUM_POS; i++) {
             plays[i] = i;
+            playIndex[i] = i;
+        }
+        // index the current simDeck permutation by card id
+        for (int i = 0; i < NUM_CARDS; i++) {
+            deckIndex[simDeck[i].getCardId()] = i;
         }
     }
 
@@ -90,33 +131,31 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
 
 		// match simDeck to actual play event; in this way, all indices forward from the card contain a list of 
         //   undealt Cards in some permutation.
-        int cardIndex = numPlays;
-        while (!card.equals(simDeck[cardIndex])) {
-            cardIndex++;
-        }
-        simDeck[cardIndex] = simDeck[numPlays];
-        simDeck[numPlays] = card;
+        dealCard(card);
 
         if (numPlays < 24) { // not the forced last play
             // compute average time per move evaluation
             int remainingPlays = NUM_POS - numPlays; // ignores triviality of last play to keep a conservative margin for game completion
-            long millisPerPlay = millisRemaining / remainingPlays; // dividing time evenly with future getPlay() calls
-            long millisPerMoveEval = millisPerPlay / remainingPlays; // dividing time evenly across moves now considered
+            timeBudget.start(TimeBudget.millisToNanos(millisRemaining) / remainingPlays); // dividing time evenly with future getPlay() calls
             // copy the play positions (row-major indices) that are empty
             System.arraycopy(plays, numPlays, legalPlayLists[numPlays], 0, remainingPlays);
             double maxAverageScore = Double.NEGATIVE_INFINITY; // maximum average score found for moves so far
             ArrayList<Integer> bestPlays = new ArrayList<Integer>(); // all plays yielding the maximum average score 
+            SplittableRandom playerRandom = random;
             for (int i = 0; i < remainingPlays; i++) { // for each legal play position
                 int play = legalPlayLists[numPlays][i];
-                long startTime = System.currentTimeMillis();
-                long endTime = startTime + millisPerMoveEval; // compute when MC simulations should end
+                random = playerRandom.split(); // simulate each candidate with its own stream
+                timeBudget.startSlice(remainingPlays - i); // dividing time evenly across moves now considered
                 makePlay(card, play / SIZE, play % SIZE);  // play the card at the empty position
                 int simCount = 0;
-                int scoreTotal = 0;
-                while (System.currentTimeMillis() < endTime) { // perform as many MC simulations as possible through the allotted time
-                    // Perform a Monte Carlo simulation of greedy play to the depth limit or game end, whichever comes first.
-                    scoreTotal += simGreedyPlay(depthLimit);  // accumulate MC simulation scores
-                    simCount++; // increment count of MC simulations
+                long scoreTotal = 0;
+                int batchSize = kernel == null ? 1 : kernel.getBatchSize(); // MC simulations per step
+                // perform the fixed number of MC simulations, or as many as possible through the allotted time
+                while (rolloutsPerPlay > 0 ? simCount < rolloutsPerPlay : timeBudget.tick(batchSize)) {
+                    int numRollouts = rolloutsPerPlay > 0 ? Math.min(batchSize, rolloutsPerPlay - simCount) : batchSize;
+                    // Perform Monte Carlo simulations of greedy play to the depth limit or game end, whichever comes first.
+                    scoreTotal += simulateRollouts(numRollouts);  // accumulate MC simulation scores
+                    simCount += numRollouts; // increment count of MC simulations
                 }
                 undoPlay(); // undo the play under evaluation
                 // update (if necessary) the maximum average score and the list of best plays
@@ -129,20 +168,39 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
                     maxAverageScore = averageScore;
                 }
             }
+            random = playerRandom;
             int bestPlay = bestPlays.get(random.nextInt(bestPlays.size())); // choose a best play (breaking ties randomly)
             // update our list of plays, recording the chosen play in its sequential position; all onward from numPlays are empty positions
-            int bestPlayIndex = numPlays;
-            while (plays[bestPlayIndex] != bestPlay) {
-                bestPlayIndex++;
-            }
-            plays[bestPlayIndex] = plays[numPlays];
-            plays[numPlays] = bestPlay;
+            selectPlay(bestPlay);
         }
         int[] playPos = {plays[numPlays] / SIZE, plays[numPlays] % SIZE}; // decode it into row and column
         makePlay(card, playPos[0], playPos[1]); // make the chosen play (not undoing this time)
         return playPos; // return the chosen play
     }
 
+    /**
+     * Perform the given number of Monte Carlo simulations from the current
+     * state, in lockstep batches of the rollout kernel if set, and return
+     * their total score.
+     *
+     * @param numRollouts number of simulations
+     * @return the total score of the simulations
+     */
+    private long simulateRollouts(int numRollouts) {
+        long scoreTotal = 0;
+        if (kernel == null) {
+            for (int n = 0; n < numRollouts; n++) {
+                scoreTotal += simGreedyPlay(depthLimit);
+            }
+            return scoreTotal;
+        }
+        kernel.load(grid, numPlays, simDeck, plays);
+        for (int n = 0; n < numRollouts; n += kernel.getBatchSize()) {
+            scoreTotal += kernel.run(Math.min(kernel.getBatchSize(), numRollouts - n), depthLimit, random);
+        }
+        return scoreTotal;
+    }
+
     /**
      * From the chosen play, perform simulated Card draws and greedy placement
      * (depthLimit) iterations forward and return the resulting grid score.
@@ -166,11 +224,12 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
                 int remainingPlays = NUM_POS - numPlays;
                 System.arraycopy(plays, numPlays, legalPlayLists[numPlays], 0, remainingPlays);
                 maxScore = Integer.MIN_VALUE;
+                int gridScore = system.getScore(grid);
+                system.getScoreDeltas(grid, card, playScoreDeltas); // score all plays of the card at once
                 ArrayList<Integer> bestPlays = new ArrayList<Integer>();
                 for (int i = 0; i < remainingPlays; i++) {
                     int play = legalPlayLists[numPlays][i];
-                    makePlay(card, play / SIZE, play % SIZE);
-                    score = system.getScore(grid);
+                    score = gridScore + playScoreDeltas[play];
                     if (score >= maxScore) {
                         if (score > maxScore) {
                             bestPlays.clear();
@@ -178,7 +237,6 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
                         bestPlays.add(play);
                         maxScore = score;
                     }
-                    undoPlay();
                 }
                 int bestPlay = bestPlays.get(random.nextInt(bestPlays.size()));
                 makePlay(card, bestPlay / SIZE, bestPlay % SIZE);
@@ -194,27 +252,46 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
 
     public void makePlay(Card card, int row, int col) {
         // match simDeck to event
-        int cardIndex = numPlays;
-        while (!card.equals(simDeck[cardIndex])) {
-            cardIndex++;
-        }
-        simDeck[cardIndex] = simDeck[numPlays];
-        simDeck[numPlays] = card;
+        dealCard(card);
 
         // update plays to reflect chosen play in sequence
         grid[row][col] = card;
-        int play = row * SIZE + col;
-        int j = 0;
-        while (plays[j] != play) {
-            j++;
-        }
-        plays[j] = plays[numPlays];
-        plays[numPlays] = play;
+        selectPlay(row * SIZE + col);
 
         // increment the number of plays taken
         numPlays++;
     }
 
+    /**
+     * Swap the given card into simDeck index numPlays, keeping deckIndex
+     * current.
+     *
+     * @param card card dealt
+     */
+    private void dealCard(Card card) {
+        int cardIndex = deckIndex[card.getCardId()];
+        Card swapped = simDeck[numPlays];
+        simDeck[cardIndex] = swapped;
+        deckIndex[swapped.getCardId()] = cardIndex;
+        simDeck[numPlays] = card;
+        deckIndex[card.getCardId()] = numPlays;
+    }
+
+    /**
+     * Swap the given empty position into plays index numPlays, keeping
+     * playIndex current.
+     *
+     * @param play row-major position played
+     */
+    private void selectPlay(int play) {
+        int playsIndex = playIndex[play];
+        int swapped = plays[numPlays];
+        plays[playsIndex] = swapped;
+        playIndex[swapped] = playsIndex;
+        plays[numPlays] = play;
+        playIndex[play] = numPlays;
+    }
+
     public void undoPlay() { // undo the previous play
         numPlays--;
         int play = plays[numPlays];
@@ -227,6 +304,26 @@ public class GreedyMCPlayer implements PokerSquaresPlayer {
     @Override
     public void setPointSystem(PokerSquaresPointSystem system, long millis) {
         this.system = system;
+        this.keyScores = system.getKeyScoreTable();
+        Arrays.fill(plyTables, keyScores);
+        if (kernel != null) {
+            kernel.setPlyTables(plyTables);
+        }
+    }
+
+    /**
+     * Set the number of simulations advanced in lockstep by the rollout kernel
+     * (32 by default), or 0 to perform simulations one at a time with
+     * simGreedyPlay. Both make the same greedy plays, but batches are faster.
+     * In time-limited simulation, the clock is checked between batches.
+     *
+     * @param batchSize simulations per batch (0 for no batching)
+     */
+    public void setRolloutBatchSize(int batchSize) {
+        kernel = batchSize > 0 ? new RolloutKernel(batchSize) : null;
+        if (kernel != null) {
+            kernel.setPlyTables(plyTables);
+        }
     }
 
     /* (non-Javadoc)
@@ -0,0 +1,246 @@
+/**
+ * GridLines - Incrementally maintained state of the 5 rows and 5 columns of a
+ * Poker Squares grid. For each line, the rank counts, suit counts, rank mask,
+ * rank pattern and resulting PokerHand hand key (which determines the line's
+ * hand class) are updated in constant time as cards are added and removed.
+ *
+ * Any number of value tables indexed by hand key (e.g. HandValues turn
+ * buckets, point system scores) may be attached. For each table, the current
+ * value of every line and the running total over all lines are maintained as
+ * well, so that a grid is scored with a single lookup and a trial placement
+ * is scored from the change in its row and column alone.
+ *
+ * Lines are indexed with rows 0 through 4 followed by columns 0 through 4.
+ */
+public class GridLines {
+
+    private final int SIZE = PokerSquares.SIZE; // number of rows/columns in square grid
+    private final int NUM_LINES = 2 * SIZE; // number of rows and columns
+    private final int EMPTY_KEY = PokerHand.getHandKey(0, PokerHand.EMPTY_PATTERN, false); // hand key of an empty line
+    private long[] rankCounts = new long[NUM_LINES]; // 3-bit rank count fields indexed by rank, per line
+    private int[] suitCounts = new int[NUM_LINES * Card.NUM_SUITS]; // suit counts, per line
+    private int[] rankMasks = new int[NUM_LINES]; // masks of ranks present, per line
+    private int[] patterns = new int[NUM_LINES]; // rank pattern indices, per line
+    private int[] sizes = new int[NUM_LINES]; // numbers of cards, per line
+    private int[] keys = new int[NUM_LINES]; // hand keys, per line
+    private int[][] tables; // value tables indexed by hand key
+    private int[][] values; // current line values, per table
+    private int[] totals; // current total values over all lines, per table
+
+    /**
+     * Create the line state of an empty grid with the given number of value
+     * tables.
+     *
+     * @param numTables number of value tables indexed by hand key
+     */
+    public GridLines(int numTables) {
+        tables = new int[numTables][];
+        values = new int[numTables][NUM_LINES];
+        totals = new int[numTables];
+        clear();
+    }
+
+    /**
+     * Attach a value table indexed by hand key. The table should be set while
+     * the grid is empty (e.g. before clear()).
+     *
+     * @param table value table index
+     * @param keyValues values indexed by PokerHand hand key
+     */
+    public void setTable(int table, int[] keyValues) {
+        tables[table] = keyValues;
+    }
+
+    /**
+     * Reset to the state of an empty grid.
+     */
+    public void clear() {
+        for (int line = 0; line < NUM_LINES; line++) {
+            rankCounts[line] = 0L;
+            rankMasks[line] = 0;
+            patterns[line] = PokerHand.EMPTY_PATTERN;
+            sizes[line] = 0;
+            keys[line] = EMPTY_KEY;
+        }
+        for (int i = 0; i < suitCounts.length; i++) {
+            suitCounts[i] = 0;
+        }
+        for (int table = 0; table < tables.length; table++) {
+            int emptyValue = tables[table] == null ? 0 : tables[table][EMPTY_KEY];
+            for (int line = 0; line < NUM_LINES; line++) {
+                values[table][line] = emptyValue;
+            }
+            totals[table] = NUM_LINES * emptyValue;
+        }
+    }
+
+    /**
+     * Copy the line state and value tables of another instance with the same
+     * number of tables. The value tables themselves are shared.
+     *
+     * @param other line state to copy
+     */
+    public void copyFrom(GridLines other) {
+        System.arraycopy(other.rankCounts, 0, rankCounts, 0, NUM_LINES);
+        System.arraycopy(other.suitCounts, 0, suitCounts, 0, suitCounts.length);
+        System.arraycopy(other.rankMasks, 0, rankMasks, 0, NUM_LINES);
+        System.arraycopy(other.patterns, 0, patterns, 0, NUM_LINES);
+        System.arraycopy(other.sizes, 0, sizes, 0, NUM_LINES);
+        System.arraycopy(other.keys, 0, keys, 0, NUM_LINES);
+        for (int table = 0; table < tables.length; table++) {
+            tables[table] = other.tables[table];
+            System.arraycopy(other.values[table], 0, values[table], 0, NUM_LINES);
+            totals[table] = other.totals[table];
+        }
+    }
+
+    /**
+     * Add a card at the given grid position.
+     *
+     * @param card card placed
+     * @param row row of placement
+     * @param col column of placement
+     */
+    public void add(Card card, int row, int col) {
+        addToLine(row, card);
+        addToLine(SIZE + col, card);
+    }
+
+    /**
+     * Remove the card at the given grid position.
+     *
+     * @param card card removed
+     * @param row row of removal
+     * @param col column of removal
+     */
+    public void remove(Card card, int row, int col) {
+        removeFromLine(row, card);
+        removeFromLine(SIZE + col, card);
+    }
+
+    private void addToLine(int line, Card card) {
+        int shift = 3 * card.getRank();
+        int suitIndex = line * Card.NUM_SUITS + card.getSuit();
+        patterns[line] = PokerHand.addToPattern(patterns[line], (int) (rankCounts[line] >>> shift) & 7);
+        rankCounts[line] += 1L << shift;
+        rankMasks[line] |= 1 << card.getRank();
+        suitCounts[suitIndex]++;
+        sizes[line]++;
+        setKey(line, PokerHand.getHandKey(rankMasks[line], patterns[line], suitCounts[suitIndex] == sizes[line]));
+    }
+
+    private void removeFromLine(int line, Card card) {
+        int shift = 3 * card.getRank();
+        int multiplicity = (int) (rankCounts[line] >>> shift) & 7;
+        patterns[line] = PokerHand.removeFromPattern(patterns[line], multiplicity);
+        rankCounts[line] -= 1L << shift;
+        if (multiplicity == 1) {
+            rankMasks[line] &= ~(1 << card.getRank());
+        }
+        suitCounts[line * Card.NUM_SUITS + card.getSuit()]--;
+        sizes[line]--;
+        setKey(line, PokerHand.getHandKey(rankMasks[line], patterns[line], isSameSuit(line)));
+    }
+
+    private boolean isSameSuit(int line) {
+        for (int suit = 0; suit < Card.NUM_SUITS; suit++) {
+            int count = suitCounts[line * Card.NUM_SUITS + suit];
+            if (count != 0) {
+                return count == sizes[line];
+            }
+        }
+        return false;
+    }
+
+    private void setKey(int line, int key) {
+        keys[line] = key;
+        for (int table = 0; table < tables.length; table++) {
+            int value = tables[table][key];
+            totals[table] += value - values[table][line];
+            values[table][line] = value;
+        }
+    }
+
+    /**
+     * Return the hand key a line would have with the given card added.
+     *
+     * @param line line index (rows 0-4, then columns 0-4)
+     * @param card card to add
+     * @return the hand key of the line with the card added
+     */
+    public int getKeyWith(int line, Card card) {
+        int multiplicity = (int) (rankCounts[line] >>> (3 * card.getRank())) & 7;
+        int pattern = PokerHand.addToPattern(patterns[line], multiplicity);
+        boolean sameSuit = suitCounts[line * Card.NUM_SUITS + card.getSuit()] == sizes[line];
+        return PokerHand.getHandKey(rankMasks[line] | (1 << card.getRank()), pattern, sameSuit);
+    }
+
+    /**
+     * Return the change in the total value of the given table if the given
+     * card were placed at the given empty grid position. Only the row and
+     * column of the placement change.
+     *
+     * @param table value table index
+     * @param card card to place
+     * @param row row of placement
+     * @param col column of placement
+     * @return the change in total table value
+     */
+    public int getDelta(int table, Card card, int row, int col) {
+        int[] keyValues = tables[table];
+        int[] lineValues = values[table];
+        return keyValues[getKeyWith(row, card)] - lineValues[row]
+                + keyValues[getKeyWith(SIZE + col, card)] - lineValues[SIZE + col];
+    }
+
+    /**
+     * Return the current total value of the given table over all lines.
+     *
+     * @param table value table index
+     * @return the current total value
+     */
+    public int getTotal(int table) {
+        return totals[table];
+    }
+
+    /**
+     * Return the current value of the given table for a line.
+     *
+     * @param table value table index
+     * @param line line index (rows 0-4, then columns 0-4)
+     * @return the current line value
+     */
+    public int getValue(int table, int line) {
+        return values[table][line];
+    }
+
+    /**
+     * Return the current hand key of a line.
+     *
+     * @param line line index (rows 0-4, then columns 0-4)
+     * @return the current hand key
+     */
+    public int getHandKey(int line) {
+        return keys[line];
+    }
+
+    /**
+     * Return the current partial hand class of a line.
+     *
+     * @param line line index (rows 0-4, then columns 0-4)
+     * @return the current partial hand class
+     */
+    public OurPokerHand getPokerHand(int line) {
+        return OurPokerHand.getPokerHand(keys[line]);
+    }
+
+    /**
+     * Return the number of cards in a line.
+     *
+     * @param line line index (rows 0-4, then columns 0-4)
+     * @return the number of cards in the line
+     */
+    public int getSize(int line) {
+        return sizes[line];
+    }
+}
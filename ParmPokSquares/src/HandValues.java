@@ -1,63 +1,89 @@
-import java.util.HashMap;
-
 public class HandValues {
     private final int SIZE = 5;
+    private static final int NUM_BUCKETS = 3; // turns 0-9, 10-19, and 20-24
+    private static final int MAX_VALUE = 127; // maximum permissible hand value
+    private static final int MIN_VALUE = -128; // minimum permissible hand value
+
+    // hand values indexed by turn bucket * OurPokerHand.NUM_HANDS + hand id
+    private byte[] handVals = new byte[NUM_BUCKETS * OurPokerHand.NUM_HANDS];
+    // hand values by PokerHand hand key for each turn bucket, built on demand
+    private int[][] keyValues = new int[NUM_BUCKETS][];
 
-    private HashMap<OurPokerHand, Integer>[] handVals = new HashMap[3];
-    
     public HandValues() {
-        for (int i = 0; i < handVals.length; i++) {
-            handVals[i] = new HashMap<>();
-        }        
     }
-    
+
     /**
      * Store the value of a particular hand on a particular turn.
      * Uses the same value for turns 0-9, 10-19, and 20-24.
-     * 
+     * Values are clamped to the range of point system scores [-128, 127].
+     *
      * @param index The turn at which the hand is to be evaluated
-     * @param hand 
-     * @param value The new value for the given hand 
+     * @param hand
+     * @param value The new value for the given hand
      */
-    public void put (int index, OurPokerHand hand, Integer value) {
-        handVals[index / 10].put(hand, value);
+    public void put (int index, OurPokerHand hand, int value) {
+        handVals[(index / 10) * OurPokerHand.NUM_HANDS + hand.id] = (byte) Math.max(MIN_VALUE, Math.min(MAX_VALUE, value));
+        keyValues[index / 10] = null;
+    }
+
+    public int get(int index, OurPokerHand hand) {
+        return handVals[(index / 10) * OurPokerHand.NUM_HANDS + hand.id];
     }
-    
-    public Integer get(int index, OurPokerHand hand) {
-        return handVals[index / 10].get(hand);
+
+    public int get(int index, int handId) {
+        return handVals[(index / 10) * OurPokerHand.NUM_HANDS + handId];
+    }
+
+    /**
+     * Get the fused table of hand values for a particular turn, indexed by
+     * PokerHand hand key, so that a five-position line may be valued with
+     * a single lookup: getKeyValues(turn)[PokerHand.getHandKey(line)].
+     * The table is built on first use after any change to the turn's values.
+     *
+     * @param index The turn at which hands are to be evaluated
+     * @return hand values indexed by hand key
+     */
+    public int[] getKeyValues(int index) {
+        int[] values = keyValues[index / 10];
+        if (values == null) {
+            values = new int[PokerHand.NUM_HAND_KEYS];
+            for (int key = 0; key < values.length; key++) {
+                values[key] = get(index, OurPokerHand.getPokerHand(key).id);
+            }
+            keyValues[index / 10] = values;
+        }
+        return values;
     }
-    
-    // Copy the turn 0 hand values into all the other turns    
+
+    // Copy the turn 0 hand values into all the other turns
     public void cloneAllTurns() {
-        for (int i = 1; i < handVals.length; i++) {
-            handVals[i] = (HashMap<OurPokerHand, Integer>) handVals[0].clone();
+        for (int i = 1; i < NUM_BUCKETS; i++) {
+            System.arraycopy(handVals, 0, handVals, i * OurPokerHand.NUM_HANDS, OurPokerHand.NUM_HANDS);
+            keyValues[i] = keyValues[0];
         }
     }
-    
-    // Deep copy
+
+    // Deep copy (key value tables are never modified once built, so they are shared until a put)
     public HandValues deepClone() {
         HandValues result = new HandValues();
-        
-        for (int i = 0; i < result.handVals.length; i++) {
-            result.handVals[i] = (HashMap<OurPokerHand, Integer>) this.handVals[i].clone();
-        }
-        
+        System.arraycopy(this.handVals, 0, result.handVals, 0, handVals.length);
+        System.arraycopy(this.keyValues, 0, result.keyValues, 0, NUM_BUCKETS);
         return result;
     }
-    
+
     public int size() {
-        return handVals.length;
+        return NUM_BUCKETS;
     }
-    
+
     public String toString() {
         String result = "";
         result += " HC  1P  2P  3K  ST  FL  FH  4K  SF  RF HC4 1P4 2P4 3K4 ST4 FL4 4K4 SF4 RF4 IS4 IF4 HC3 1P3 3K3 ST3 FL3 SF3 RF3 IS3 IF3 HC2 1P2 ST2 FL2 SF2 RF2 IS2 IF2  1C  0C\n";
         for (int i = 0; i < 3; i++) {
             for (OurPokerHand theHand : OurPokerHand.values()) {
-                result += String.format("%3d", handVals[i].get(theHand)) + " ";
+                result += String.format("%3d", get(i * 10, theHand)) + " ";
             }
             result += "\n";
-        }        
+        }
         return result;
     }
 }
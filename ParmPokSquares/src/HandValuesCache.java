@@ -0,0 +1,198 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * HandValuesCache - Directory of tuned hand values, one file per point
+ * system, so that a player may start tuning from the values it found for the
+ * same point system in an earlier run.
+ *
+ * Point systems are keyed by their score tables (see
+ * PokerSquaresPointSystem.getScoreTable()) divided by the greatest common
+ * divisor of their scores. Since a positive scaling of a score table scales
+ * every score, it leaves the ranking of all grids unchanged, so tables that
+ * are positive scalings of each other share a key, and cached values are
+ * scaled by the ratio of the divisors when loaded.
+ *
+ * Files are written to a temporary file and then renamed, so that processes
+ * sharing the directory never read a partial file. Unreadable, mismatched or
+ * missing files are cache misses.
+ */
+public class HandValuesCache {
+
+    private static final int MAGIC = 0x48564331; // "HVC1"
+    private static final int VERSION = 1; // file format version
+    private static final int NUM_BUCKETS = 3; // HandValues turn buckets (turns 0-9, 10-19 and 20-24)
+    private final File directory; // cache directory
+
+    /**
+     * Create a cache in the given directory, which is created when first
+     * stored to if necessary.
+     *
+     * @param directory cache directory
+     */
+    public HandValuesCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Return the greatest common divisor of the absolute scores of the given
+     * table (1 if all are 0).
+     *
+     * @param scoreTable scores indexed by PokerHand id
+     * @return the divisor of the scores
+     */
+    public static int getScale(int[] scoreTable) {
+        int gcd = 0;
+        for (int score : scoreTable) {
+            int a = Math.abs(score), b = gcd;
+            while (b != 0) {
+                int t = a % b;
+                a = b;
+                b = t;
+            }
+            gcd = a;
+        }
+        return gcd == 0 ? 1 : gcd;
+    }
+
+    /**
+     * Return the key of the given score table, the same for all of its
+     * positive scalings.
+     *
+     * @param scoreTable scores indexed by PokerHand id
+     * @return the 64-bit key of the table
+     */
+    public static long getKey(int[] scoreTable) {
+        int scale = getScale(scoreTable);
+        long key = scoreTable.length;
+        for (int score : scoreTable) {
+            key = mix(key * 31 + score / scale);
+        }
+        return key;
+    }
+
+    private static long mix(long z) { // SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private File getFile(long key) {
+        return new File(directory, String.format("handvals-%016x.bin", key));
+    }
+
+    /**
+     * Return the cached hand values of the given score table, scaled to it.
+     *
+     * @param scoreTable scores indexed by PokerHand id
+     * @return the cached hand values, or null if none are cached
+     */
+    public HandValues load(int[] scoreTable) {
+        File file = getFile(getKey(scoreTable));
+        if (!file.isFile()) {
+            return null;
+        }
+        int scale = getScale(scoreTable);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != scoreTable.length) {
+                return null;
+            }
+            int storedScale = in.readInt();
+            for (int score : scoreTable) {
+                if (in.readInt() != score / scale) { // (a key collision)
+                    return null;
+                }
+            }
+            HandValues values = new HandValues();
+            for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+                for (OurPokerHand hand : OurPokerHand.values()) {
+                    values.put(bucket * 10, hand, (int) Math.round((double) in.readByte() * scale / storedScale));
+                }
+            }
+            return values;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Cache the given hand values of the given score table, replacing any
+     * cached for it.
+     *
+     * @param scoreTable scores indexed by PokerHand id
+     * @param values hand values tuned for the score table
+     * @return whether or not the values were stored (if not, no temporary
+     * file is left in the cache directory)
+     */
+    public boolean store(int[] scoreTable, HandValues values) {
+        int scale = getScale(scoreTable);
+        File file = getFile(getKey(scoreTable));
+        File temp = null;
+        try {
+            Files.createDirectories(directory.toPath());
+            temp = File.createTempFile("handvals", ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(scoreTable.length);
+                out.writeInt(scale);
+                for (int score : scoreTable) {
+                    out.writeInt(score / scale);
+                }
+                for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+                    for (OurPokerHand hand : OurPokerHand.values()) {
+                        out.writeByte(values.get(bucket * 10, hand));
+                    }
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            if (temp != null) { // (a failed write or rename leaves no partial file behind)
+                temp.delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Store the OurPlayer initial hand values of the American point system in
+     * a temporary cache, then load them for the American point system, a
+     * tripled American point system and the British point system.
+     *
+     * @param args (not used)
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory("handvals").toFile();
+        HandValuesCache cache = new HandValuesCache(directory);
+        PokerSquaresPointSystem american = PokerSquaresPointSystem.getAmericanPointSystem();
+        int[] tripled = american.getScoreTable();
+        for (int i = 0; i < tripled.length; i++) {
+            tripled[i] *= 3;
+        }
+        int[] british = PokerSquaresPointSystem.getBritishPointSystem().getScoreTable();
+        System.out.printf("keys: American %016x, tripled American %016x, British %016x\n",
+                getKey(american.getScoreTable()), getKey(tripled), getKey(british));
+
+        OurPlayer player = new OurPlayer(PokerSquares.SIZE * PokerSquares.SIZE);
+        player.setPointSystem(american, 0);
+        System.out.println("stored: " + cache.store(american.getScoreTable(), player.handVals));
+        HandValues loaded = cache.load(american.getScoreTable());
+        System.out.println("American values equal: " + player.handVals.toString().equals(loaded.toString()));
+        HandValues scaled = cache.load(tripled);
+        System.out.println("tripled American (clamped to [-128, 127]):\n" + scaled);
+        System.out.println("British loaded: " + (cache.load(british) != null));
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+}
@@ -23,14 +23,14 @@ public class HighleyMcNulty_SRulerPlayer extends HighleyMcNulty_OurPlayer implem
      * Use stochastic ruler to adjust the partial hand values before the initial
      * 5 minutes has ended
      */
-    protected void adjustHandVals(long endTime) {
+    protected void adjustHandVals() {
         // current holds the current value of handVals
         HandValues current = handVals.deepClone();
 
         // Save best value seen
         HandValues bestHandVals = handVals.deepClone();
         double bestValue, worstValue;
-        bestValue = worstValue = srEvaluate(handVals, 100);
+        bestValue = worstValue = evaluateHandValues(handVals, new DealCorpus(100, random), 0, 100);
         System.out.println("Initial best/worst: " + bestValue);
         
         int currentM = 2; // # comparisons required before accepting a new set of handVals
@@ -46,22 +46,22 @@ public class HighleyMcNulty_SRulerPlayer extends HighleyMcNulty_OurPlayer implem
         }
 
         // finding "neighbors" to give new values for partial hands
-        long startLoopTime = System.currentTimeMillis();
-        endTime = endTime - 3000; // 3 seconds to make sure we end on time
+        timeBudget.setDeadline(timeBudget.getDeadline() - TimeBudget.millisToNanos(3000)); // 3 seconds to make sure we end on time
         int iter = 0;
-        while (System.currentTimeMillis() < endTime) {
+        while (timeBudget.hasTime()) {
             iter++;
             if (iter % 1000 == 0) 
-                System.out.println(iter + "\t%time elapsed: " + 100 * (double) (System.currentTimeMillis() - startLoopTime) / (endTime - startLoopTime));
+                System.out.println(iter + "\t%time elapsed: " + 100 * timeBudget.getElapsedFraction());
             // Find a neighbor
             HandValues neighbor = current.deepClone();
+            double elapsed = timeBudget.getElapsedFraction(); // fraction of the tuning time elapsed
 
             for (int i = 0; i < neighbor.size(); i++) {
                 for (OurPokerHand thisHand : OurPokerHand.values()) {
                     // At the beginning, change nearly everything.  Near the end, only change half.
-                    if (random.nextInt(100) > ((double) (System.currentTimeMillis() - startLoopTime) / (endTime - startLoopTime) * 50)) {
+                    if (random.nextInt(100) > elapsed * 50) {
                         // sets new values for partial hands to test the "neighbors"
-                        //int interval = (int) (((double) (System.currentTimeMillis() - startLoopTime) / (endTime - startLoopTime)) * 20) + 2;
+                        //int interval = (int) (elapsed * 20) + 2;
                         int interval = 4;
                         int newVal = neighbor.get(i*10+1, thisHand) + random.nextInt(interval) - (interval / 2);
                         // the new values for the neighbor can only ever be modified between -128-127
@@ -82,9 +82,11 @@ public class HighleyMcNulty_SRulerPlayer extends HighleyMcNulty_OurPlayer implem
                 bumpM *= 5;
                 System.out.println("New M: " + currentM);
             }
+            // the neighbor and the best hand values are compared on the same games
+            DealCorpus corpus = new DealCorpus(10 * currentM, random);
             for (int i = 0; i < currentM; i++) {
                 // Evaluate the neighbor to test if it is "good"
-                neighborVal = srEvaluate(neighbor, 10);
+                neighborVal = evaluateHandValues(neighbor, corpus, 10 * i, 10);
                 neighborValTotal += neighborVal;
                 neighborValCount++;
                 int theta = random.nextInt((int) (bestValue - worstValue + 1)) + (int) worstValue;
@@ -103,13 +105,15 @@ public class HighleyMcNulty_SRulerPlayer extends HighleyMcNulty_OurPlayer implem
 
             // If neighbor returns the best value, save it
             if (acceptNeighbor
-                    && ((double)neighborValTotal/neighborValCount) > srEvaluate(bestHandVals, 10) 
-                    && (neighborVal = srEvaluate(neighbor, 500)) > srEvaluate(bestHandVals, 500)) {
-                // saves the best hand values
-                bestHandVals = neighbor.deepClone();
-                bestValue = neighborVal;
-                //System.out.println("******************************************************** iter: " + iter + "\t%time elapsed: " + 100 * (double) (System.currentTimeMillis() - startLoopTime) / (endTime - startLoopTime));
-                //System.out.println("New best: " + bestValue + " \n" + bestHandVals);
+                    && neighborValTotal / neighborValCount > evaluateHandValues(bestHandVals, corpus, 0, 10 * neighborValCount)) {
+                DealCorpus finalCorpus = new DealCorpus(500, random);
+                if ((neighborVal = evaluateHandValues(neighbor, finalCorpus, 0, 500)) > evaluateHandValues(bestHandVals, finalCorpus, 0, 500)) {
+                    // saves the best hand values
+                    bestHandVals = neighbor.deepClone();
+                    bestValue = neighborVal;
+                    //System.out.println("******************************************************** iter: " + iter + "\t%time elapsed: " + 100 * timeBudget.getElapsedFraction());
+                    //System.out.println("New best: " + bestValue + " \n" + bestHandVals);
+                }
             }
             
 
@@ -123,24 +127,6 @@ public class HighleyMcNulty_SRulerPlayer extends HighleyMcNulty_OurPlayer implem
         System.out.println(bestHandVals);
     }
 
-    private double srEvaluate(HandValues values, int iter) {
-        // saves the original hand values
-        HandValues original = handVals;
-        // takes in the new hand values
-        handVals = values;
-        int total = 0;
-        init();
-        // simulates a game of pokersquares using the neighbors value
-        for (int i = 0; i < iter; i++) {
-            int result = simGreedyPlay(25);
-            total += result;
-            init();
-        }
-        // resets the hand values toc the original
-        handVals = original;
-        return (double) total / iter;
-    }
-
     /* (non-Javadoc)
      * @see PokerSquaresPlayer#getName()
      */
@@ -0,0 +1,277 @@
+import java.util.SplittableRandom;
+
+/**
+ * NTupleNetwork - An n-tuple network value function of Poker Squares
+ * afterstates (grids just after a play), trained by temporal difference
+ * learning from greedy self-play.
+ *
+ * Each of the 10 rows and columns is a 5-cell tuple, and all of them share
+ * weights, indexed by the PokerHand hand key of the line's cards (which is
+ * invariant under the orders of the cells and the suits that preserve the
+ * scores). Two tuple families are summed: a coarse weight per partial hand
+ * class (OurPokerHand, as in HandValues), which generalizes across the hand
+ * keys of a class, and a fine weight per hand key. Both are indexed by ply
+ * as well (the number of cards played before the play), so that, e.g., a
+ * four-card flush draw may be valued differently on each turn. The value of
+ * the last afterstate is the point system score.
+ *
+ * Since every weight belongs to a single line, the weights of a ply fold into
+ * one table indexed by hand key (see getKeyValues(int)), so the network is a
+ * drop-in replacement of the HandValues tables of GridLines and the rollout
+ * kernel, evaluated with the same single lookup per line. Training and
+ * getValue(GridLines, int) touch only primitive arrays and allocate no
+ * memory. Instances are not thread safe.
+ */
+public class NTupleNetwork {
+
+    private static final int SIZE = PokerSquares.SIZE; // number of rows/columns in square grid
+    private static final int NUM_POS = SIZE * SIZE; // number of positions in square grid
+    private static final int NUM_LINES = 2 * SIZE; // number of rows and columns
+    private static final int NUM_CARDS = Card.NUM_CARDS; // number of cards in deck
+    private static final int NUM_KEYS = PokerHand.NUM_HAND_KEYS; // number of hand keys
+    private static final int NUM_CLASSES = OurPokerHand.NUM_HANDS; // number of partial hand classes
+    private static final int[] keyClasses = new int[NUM_KEYS]; // partial hand class id indexed by hand key
+    private static final Card[] cards = Card.getAllCards(); // cards indexed by card id
+    private double classRate = 0.002; // learning rate of the class weights
+    private double keyRate = 0.01; // learning rate of the hand key weights
+    private double[] classWeights = new double[NUM_POS * NUM_CLASSES]; // indexed by ply * NUM_CLASSES + class id
+    private double[] keyWeights = new double[NUM_POS * NUM_KEYS]; // indexed by ply * NUM_KEYS + hand key
+    private int[][] keyValues = new int[NUM_POS][]; // rounded line values indexed by hand key, per ply (built on demand)
+    private GridLines lines = new GridLines(0); // line state of the self-play grid
+    private int[] deck = new int[NUM_CARDS]; // card ids of the self-play deck, undealt from index ply onward
+    private int[] empties = new int[NUM_POS]; // row-major positions of the self-play grid, empty from index ply onward
+    private int[] afterKeys = new int[NUM_LINES]; // hand keys of the lines of the last afterstate
+    private long numGames = 0; // self-play games trained
+
+    static {
+        for (int key = 0; key < NUM_KEYS; key++) {
+            keyClasses[key] = OurPokerHand.getPokerHand(key).id;
+        }
+    }
+
+    /**
+     * Create a network with all weights 0.
+     */
+    public NTupleNetwork() {
+    }
+
+    /**
+     * Set the weights to the given hand values and point system scores: the
+     * class weights of each ply to the hand values of its turn, the hand key
+     * weights of the last ply to the scores, and all other hand key weights
+     * to 0.
+     *
+     * @param handVals hand values of partial hand classes
+     * @param keyScores point system scores indexed by hand key
+     */
+    public void init(HandValues handVals, int[] keyScores) {
+        for (int ply = 0; ply < NUM_POS; ply++) {
+            for (int id = 0; id < NUM_CLASSES; id++) {
+                classWeights[ply * NUM_CLASSES + id] = ply == NUM_POS - 1 ? 0 : handVals.get(ply, id);
+            }
+            for (int key = 0; key < NUM_KEYS; key++) {
+                keyWeights[ply * NUM_KEYS + key] = ply == NUM_POS - 1 ? keyScores[key] : 0;
+            }
+            keyValues[ply] = null;
+        }
+        numGames = 0;
+    }
+
+    /**
+     * Set the learning rates of the class and hand key weights.
+     *
+     * @param classRate learning rate of the class weights
+     * @param keyRate learning rate of the hand key weights
+     */
+    public void setLearningRates(double classRate, double keyRate) {
+        this.classRate = classRate;
+        this.keyRate = keyRate;
+    }
+
+    /**
+     * Train by TD(0) from greedy self-play games until the given time.
+     *
+     * @param deadline System.nanoTime() at which training stops
+     * @param random pseudorandom number generator for deals and ties
+     * @return the number of games played
+     */
+    public int train(long deadline, SplittableRandom random) {
+        TimeBudget budget = new TimeBudget();
+        budget.setDeadline(deadline);
+        int games = 0;
+        while (budget.tick(1)) {
+            playGame(random, true);
+            games++;
+        }
+        return games;
+    }
+
+    /**
+     * Train by TD(0) from the given number of greedy self-play games.
+     *
+     * @param numGames number of games
+     * @param random pseudorandom number generator for deals and ties
+     */
+    public void train(int numGames, SplittableRandom random) {
+        for (int n = 0; n < numGames; n++) {
+            playGame(random, true);
+        }
+    }
+
+    /**
+     * Play a game, placing each card where the value of the afterstate is
+     * greatest (ties broken uniformly), and return its score. When learning,
+     * the value of each afterstate is moved toward the value of the next.
+     *
+     * @param random pseudorandom number generator for deals and ties
+     * @param learn whether or not to update the weights
+     * @return the point system score of the game
+     */
+    public int playGame(SplittableRandom random, boolean learn) {
+        lines.clear();
+        for (int i = 0; i < NUM_CARDS; i++) {
+            deck[i] = i;
+        }
+        for (int i = 0; i < NUM_POS; i++) {
+            empties[i] = i;
+        }
+        double afterValue = 0;
+        for (int ply = 0; ply < NUM_POS; ply++) {
+            // draw a card, swapping it to the front of the undealt cards
+            int c = ply + random.nextInt(NUM_CARDS - ply);
+            int cardId = deck[c];
+            deck[c] = deck[ply];
+            deck[ply] = cardId;
+            Card card = cards[cardId];
+            // only the row and column of a play change value
+            double maxDelta = Double.NEGATIVE_INFINITY;
+            int bestIndex = -1;
+            int numBestPlays = 0; // number of plays yielding maxDelta so far (for reservoir sampling of ties)
+            for (int i = ply; i < NUM_POS; i++) {
+                int play = empties[i];
+                int row = play / SIZE, col = SIZE + play % SIZE;
+                double delta = getWeight(ply, lines.getKeyWith(row, card)) - getWeight(ply, lines.getHandKey(row))
+                        + getWeight(ply, lines.getKeyWith(col, card)) - getWeight(ply, lines.getHandKey(col));
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                    bestIndex = i;
+                    numBestPlays = 1;
+                } else if (delta == maxDelta && random.nextInt(++numBestPlays) == 0) {
+                    bestIndex = i; // each of the k tied plays so far is kept with probability 1/k
+                }
+            }
+            double nextValue = getValue(lines, ply) + maxDelta;
+            if (learn && ply > 0) {
+                update(ply - 1, nextValue - afterValue);
+            }
+            afterValue = nextValue;
+            // swap the play to the front of the empty positions and place the card
+            int play = empties[bestIndex];
+            empties[bestIndex] = empties[ply];
+            empties[ply] = play;
+            lines.add(card, play / SIZE, play % SIZE);
+            for (int line = 0; line < NUM_LINES; line++) {
+                afterKeys[line] = lines.getHandKey(line);
+            }
+        }
+        if (learn) {
+            numGames++;
+        }
+        return (int) Math.round(afterValue); // (the last ply is valued by the scores)
+    }
+
+    /**
+     * Add the given TD error, times the learning rates, to the weights of
+     * the lines of the last afterstate.
+     */
+    private void update(int ply, double error) {
+        for (int line = 0; line < NUM_LINES; line++) {
+            int key = afterKeys[line];
+            classWeights[ply * NUM_CLASSES + keyClasses[key]] += classRate * error;
+            keyWeights[ply * NUM_KEYS + key] += keyRate * error;
+        }
+        keyValues[ply] = null;
+    }
+
+    private double getWeight(int ply, int key) {
+        return classWeights[ply * NUM_CLASSES + keyClasses[key]] + keyWeights[ply * NUM_KEYS + key];
+    }
+
+    /**
+     * Return the value of the afterstate of the given lines.
+     *
+     * @param lines line state of the grid
+     * @param ply number of cards played before the last play
+     * @return the value of the afterstate
+     */
+    public double getValue(GridLines lines, int ply) {
+        double value = 0;
+        for (int line = 0; line < NUM_LINES; line++) {
+            value += getWeight(ply, lines.getHandKey(line));
+        }
+        return value;
+    }
+
+    /**
+     * Return the line values of the given ply, rounded and indexed by hand
+     * key, for GridLines and RolloutKernel. The table is built on first use
+     * after any change to the ply's weights.
+     *
+     * @param ply number of cards played before the play
+     * @return line values indexed by PokerHand hand key
+     */
+    public int[] getKeyValues(int ply) {
+        int[] values = keyValues[ply];
+        if (values == null) {
+            values = new int[NUM_KEYS];
+            for (int key = 0; key < NUM_KEYS; key++) {
+                values[key] = (int) Math.round(getWeight(ply, key));
+            }
+            keyValues[ply] = values;
+        }
+        return values;
+    }
+
+    /**
+     * Return the number of self-play games trained since init.
+     *
+     * @return the number of games trained
+     */
+    public long getNumGames() {
+        return numGames;
+    }
+
+    /**
+     * Train networks for the American and British point systems from the
+     * OurPlayer hand values, reporting the average score of greedy play on
+     * the same deals before training and after each further 2 seconds.
+     *
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        int numTestGames = 20000;
+        String[] names = {"American", "British"};
+        PokerSquaresPointSystem[] systems = {PokerSquaresPointSystem.getAmericanPointSystem(),
+            PokerSquaresPointSystem.getBritishPointSystem()};
+        for (int s = 0; s < systems.length; s++) {
+            PokerSquaresPointSystem system = systems[s];
+            OurPlayer player = new OurPlayer(NUM_POS);
+            player.setPointSystem(system, 0);
+            NTupleNetwork network = new NTupleNetwork();
+            network.init(player.handVals, player.keyScores);
+            SplittableRandom random = new SplittableRandom(0);
+            for (int round = 0; round <= 5; round++) {
+                if (round > 0) {
+                    network.train(System.nanoTime() + TimeBudget.millisToNanos(2000), random);
+                }
+                SplittableRandom testRandom = new SplittableRandom(1); // the same deals and ties each round
+                long total = 0;
+                for (int n = 0; n < numTestGames; n++) {
+                    total += network.playGame(testRandom, false);
+                }
+                System.out.printf("%s: %7d games trained, greedy average score %.3f\n", names[s],
+                        network.getNumGames(), (double) total / numTestGames);
+            }
+        }
+    }
+}
@@ -1,13 +1,21 @@
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class OurPlayer implements PokerSquaresPlayer {
 
     protected final int SIZE = 5; // number of rows/columns in square grid
     protected final int NUM_POS = SIZE * SIZE; // number of positions in square grid
     protected final int NUM_CARDS = Card.NUM_CARDS; // number of cards in deck
-    protected Random random = new Random(); // pseudorandom number generator for Monte Carlo simulation 
+    protected SplittableRandom random; // pseudorandom number generator for Monte Carlo simulation (split for each candidate and worker)
     protected int[] plays = new int[NUM_POS]; // positions of plays so far (index 0 through numPlays - 1) recorded as integers using row-major indices.
     // row-major indices: play (r, c) is recorded as a single integer r * SIZE + c (See http://en.wikipedia.org/wiki/Row-major_order)
     // From plays index [numPlays] onward, we maintain a list of yet unplayed positions.
@@ -18,15 +26,61 @@ public class OurPlayer implements PokerSquaresPlayer {
     protected Card[] simDeck = Card.getAllCards(); // a list of all Cards. As we learn the index of cards in the play deck,
     // we swap each dealt card to its correct index.  Thus, from index numPlays 
     // onward, we maintain a list of undealt cards for MC simulation.
+    protected Card[] simDeal; // cards drawn by simGreedyPlay, indexed by numPlays (null for random draws from simDeck)
     protected int[][] legalPlayLists = new int[NUM_POS][NUM_POS]; // stores legal play lists indexed by numPlays (depth)
     // (This avoids constant allocation/deallocation of such lists during the greedy selections of MC simulations.)
+    protected int[] deckIndex = new int[NUM_CARDS]; // simDeck index of each card, indexed by card id
+    protected int[] playIndex = new int[NUM_POS]; // plays index of each position, indexed by row-major position
+    protected double[] playAverages = new double[NUM_POS]; // average simulation scores of the legal plays considered by getPlay
+    protected int numThreads = 1; // number of threads evaluating candidate plays in getPlay
+    private ForkJoinPool pool; // thread pool for parallel candidate evaluation (created when first needed)
+    private OurPlayer[] workers; // players holding per-thread copies of the game state for parallel candidate evaluation
+    protected int tuningThreads = Runtime.getRuntime().availableProcessors(); // number of threads evaluating hand values in adjustHandVals
+    private ForkJoinPool tuningPool; // thread pool for parallel hand value evaluation (created when first needed)
+    private OurPlayer[] tuningWorkers; // players holding per-thread simulation state for parallel hand value evaluation
+    private long[] candidateTotals = new long[NUM_POS]; // simulation score totals by candidate (as a worker)
+    private int[] candidateCounts = new int[NUM_POS]; // simulation counts by candidate (as a worker)
+    protected int rolloutsPerPlay = 0; // fixed number of simulations per candidate play in getPlay (0 for time-limited simulation)
+    private SplittableRandom[] candidateRandoms = new SplittableRandom[NUM_POS]; // random streams of the candidate plays in getPlay
+    private final int EMPTY_TAG = NUM_POS; // symmetry tag of an empty row or column
+    private int[] rowTags = new int[SIZE]; // symmetry tags of the rows (plays index of a card in the row, or EMPTY_TAG)
+    private int[] colTags = new int[SIZE]; // symmetry tags of the columns (plays index of a card in the column, or EMPTY_TAG)
+    private boolean transposable; // whether or not no two cards share a row or column (as tagged by getCandidatePlays)
+    private boolean[] candidateClasses = new boolean[(EMPTY_TAG + 1) * (EMPTY_TAG + 1)]; // marks of the symmetry classes listed by getCandidatePlays
+    protected RolloutBandit bandit; // adaptive allocation of rollouts among candidate plays (null for equal time slices)
+    protected int[] playRollouts = new int[NUM_POS]; // rollouts of each candidate play of the last decision, indexed by position
+    protected RolloutKernel kernel = new RolloutKernel(32); // lockstep batches of rollouts (null for one rollout at a time by simGreedyPlay)
+    protected int[][] plyTables = new int[NUM_POS][]; // rollout line value tables indexed by hand key, per ply (as in simGreedyPlay)
+    protected HandValuesCache handValsCache; // hand values tuned in earlier runs, by point system (null for no cache)
+    protected NTupleNetwork network; // value function of the rollout tables in place of handVals (null for handVals, and while tuning)
+    private long networkMillis = 0; // time of the setPointSystem budget spent training the network
+    protected TimeBudget timeBudget = new TimeBudget(); // time of the current move or tuning, checked every few rollouts
+    private int numPonderCards = 0; // number of undealt cards pondered between getPlay calls (0 for no pondering)
+    private OurPlayer ponderer; // player holding a copy of the game state for pondering (created when first needed)
+    private Thread ponderThread; // background pondering thread (null when not pondering)
+    private volatile boolean stopPonder; // signals the pondering thread to stop
+    private int ponderPlays = -1; // numPlays of the state pondered (-1 if none)
+    private Card[] ponderCards = new Card[NUM_CARDS]; // pondered cards, most decision-relevant first
+    private int[] ponderGaps = new int[NUM_CARDS]; // heuristic value gaps between the two best plays of the pondered cards
+    private long[] ponderTotals = new long[NUM_CARDS * NUM_POS]; // pondered simulation score totals, indexed by card id * NUM_POS + play
+    private int[] ponderCounts = new int[NUM_CARDS * NUM_POS]; // pondered simulation counts, indexed like ponderTotals
+    private int ponderedRollouts = 0; // pondered simulations reused by the last decision
+    private TranspositionTable reuseTable; // rollout scores kept between decisions, keyed by state (null for no reuse)
+    private int[] reusePlays = new int[NUM_POS]; // candidate plays listed when promoting kept rollouts
+    private double[] reusedTotals = new double[NUM_POS]; // kept simulation score totals of the candidate plays
+    private int[] reusedCounts = new int[NUM_POS]; // kept simulation counts of the candidate plays
+    private int reusedRollouts = 0; // kept simulations reused by the last decision
 
     protected HandValues handVals = new HandValues();
+    protected final int SCORE_TABLE = 3; // lines table index of point system scores (tables 0-2 hold the handVals turn buckets)
+    protected GridLines lines = new GridLines(SCORE_TABLE + 1); // row and column hand values maintained by makePlay/undoPlay
+    protected int[] keyScores = new int[PokerHand.NUM_HAND_KEYS]; // point system scores indexed by hand key (see PokerSquaresPointSystem)
 
     /**
      * Create a Greedy Monte Carlo player that simulates greedy play to depth 2.
      */
     public OurPlayer() {
+        random = new SplittableRandom();
     }
 
     /**
@@ -37,13 +91,32 @@ public class OurPlayer implements PokerSquaresPlayer {
      */
     public OurPlayer(int depthLimit) {
         this.depthLimit = depthLimit;
+        random = new SplittableRandom();
+    }
+
+    /**
+     * Create a Greedy Monte Carlo player that simulates greedy play to a given
+     * depth limit, with pseudorandom numbers generated from the given seed.
+     *
+     * @param depthLimit depth limit for random greedy simulated play
+     * @param seed pseudorandom number generator seed
+     */
+    public OurPlayer(int depthLimit, long seed) {
+        this.depthLimit = depthLimit;
+        random = new SplittableRandom(seed);
     }
 
     @Override
     public void setPointSystem(PokerSquaresPointSystem system, long millis) {
-        long startTime = System.currentTimeMillis();
-        long endTime = startTime + millis;
+        stopPondering(); // (the pondering thread reads the hand value tables)
+        if (reuseTable != null) { // (kept rollouts follow the old tables)
+            reuseTable.clear();
+        }
+        network = null; // (hand values are tuned with their own rollout tables)
+        long trainingMillis = Math.min(networkMillis, millis / 2); // (the rest tunes handVals)
+        timeBudget.start(TimeBudget.millisToNanos(millis - trainingMillis)); // (the tuning deadline, see adjustHandVals)
         this.system = system;
+        keyScores = system.getKeyScoreTable();
 
         // Five-card hands just have the scoring system values
         handVals.put(0, OurPokerHand.ROYAL_FLUSH5, system.getHandScore(PokerHand.ROYAL_FLUSH));
@@ -157,18 +230,134 @@ public class OurPlayer implements PokerSquaresPlayer {
         // Clone the handVals for the other 24 turns
         handVals.cloneAllTurns();
 
-        adjustHandVals(endTime);
+        // Start tuning from the values tuned for this point system (or a positive scaling of it) in an earlier run
+        if (handValsCache != null) {
+            HandValues cached = handValsCache.load(system.getScoreTable());
+            if (cached != null) {
+                handVals = cached;
+            }
+        }
+
+        adjustHandVals();
+
+        if (handValsCache != null) {
+            handValsCache.store(system.getScoreTable(), handVals);
+        }
+
+        // Build the hand value tables by hand key for each turn bucket before play
+        for (int turn = 0; turn < NUM_POS; turn += 10) {
+            handVals.getKeyValues(turn);
+        }
+
+        // Refine the tuned hand values by self-play with the network for the remaining time
+        if (networkMillis > 0) {
+            NTupleNetwork trained = new NTupleNetwork();
+            trained.init(handVals, keyScores);
+            trained.train(System.nanoTime() + TimeBudget.millisToNanos(trainingMillis), random.split());
+            for (int ply = 0; ply < NUM_POS; ply++) {
+                trained.getKeyValues(ply);
+            }
+            network = trained;
+        }
     }
 
-    protected void adjustHandVals(long endTime) {
+    /**
+     * Tune the hand values for the current point system until the deadline
+     * of timeBudget, started by setPointSystem (none by default).
+     */
+    protected void adjustHandVals() {
 
     }
 
+    /**
+     * Return the average score of greedy simulated play of the given games
+     * of the given corpus from an empty grid with the given hand values,
+     * using this player's simulation state. Each game is played with the
+     * corpus deal and tie-breaking stream, so hand values evaluated on the
+     * same games are compared with common random numbers.
+     *
+     * @param values hand values of the simulated play
+     * @param corpus deals and tie-breaking streams of the games
+     * @param firstGame index of the first game played
+     * @param numGames number of games played
+     * @return the average score of the games
+     */
+    protected double evaluateHandValues(HandValues values, DealCorpus corpus, int firstGame, int numGames) {
+        HandValues original = handVals;
+        SplittableRandom playerRandom = random;
+        handVals = values;
+        long total = 0;
+        init();
+        for (int game = firstGame; game < firstGame + numGames; game++) {
+            simDeal = corpus.getDeal(game);
+            random = corpus.getTieBreaks(game);
+            total += simGreedyPlay(NUM_POS);
+            init();
+        }
+        simDeal = null;
+        random = playerRandom;
+        handVals = original;
+        return total / (double) numGames;
+    }
+
+    /**
+     * Evaluate each of the given hand values by the average score of greedy
+     * simulated play of all games of the given corpus, on tuningThreads
+     * threads, each with its own copy of the simulation state. Since every
+     * candidate plays the same deals with the same tie-breaking streams, the
+     * scores rank the candidates with common random numbers, and do not
+     * depend on the number of threads.
+     *
+     * @param candidates hand values to evaluate
+     * @param corpus deals and tie-breaking streams of the games
+     * @param scores average scores of the candidates (output)
+     */
+    protected void evaluateHandValues(HandValues[] candidates, DealCorpus corpus, double[] scores) {
+        for (HandValues candidate : candidates) {
+            for (int turn = 0; turn < NUM_POS; turn += 10) { // build the tables before the threads share them
+                candidate.getKeyValues(turn);
+            }
+        }
+        if (tuningWorkers == null) {
+            tuningPool = tuningThreads > 1 ? new ForkJoinPool(tuningThreads) : null;
+            tuningWorkers = new OurPlayer[tuningThreads];
+            for (int w = 0; w < tuningThreads; w++) {
+                tuningWorkers[w] = new OurPlayer(depthLimit);
+            }
+        }
+        final AtomicInteger nextCandidate = new AtomicInteger(); // next candidate to claim
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final OurPlayer worker : tuningWorkers) {
+            worker.system = system;
+            worker.keyScores = keyScores;
+            tasks.add(() -> {
+                for (int i = nextCandidate.getAndIncrement(); i < candidates.length; i = nextCandidate.getAndIncrement()) {
+                    scores[i] = worker.evaluateHandValues(candidates[i], corpus, 0, corpus.size());
+                }
+                return null;
+            });
+        }
+        try {
+            if (tuningPool == null) {
+                tasks.get(0).call();
+            } else {
+                for (Future<Void> result : tuningPool.invokeAll(tasks)) {
+                    result.get();
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see PokerSquaresPlayer#init()
      */
     @Override
     public void init() {
+        // stop pondering the last game
+        stopPondering();
+        ponderPlays = -1;
         // clear grid
         for (int row = 0; row < SIZE; row++) {
             for (int col = 0; col < SIZE; col++) {
@@ -180,6 +369,25 @@ public class OurPlayer implements PokerSquaresPlayer {
         // (re)initialize list of play positions (row-major ordering)
         for (int i = 0; i < NUM_POS; i++) {
             plays[i] = i;
+            playIndex[i] = i;
+        }
+        // index the current simDeck permutation by card id
+        for (int i = 0; i < NUM_CARDS; i++) {
+            deckIndex[simDeck[i].getCardId()] = i;
+        }
+        // attach the current hand value tables and clear the row and column state
+        for (int bucket = 0; bucket < SCORE_TABLE; bucket++) {
+            lines.setTable(bucket, handVals.getKeyValues(bucket * 10));
+        }
+        lines.setTable(SCORE_TABLE, keyScores);
+        lines.clear();
+        // rollouts choose plays by the hand values of each turn, then by point system scores for the last play
+        for (int ply = 0; ply < NUM_POS; ply++) {
+            plyTables[ply] = ply == NUM_POS - 1 ? keyScores
+                    : network != null ? network.getKeyValues(ply) : handVals.getKeyValues(ply);
+        }
+        if (kernel != null) {
+            kernel.setPlyTables(plyTables);
         }
     }
 
@@ -201,116 +409,719 @@ public class OurPlayer implements PokerSquaresPlayer {
 
         // match simDeck to actual play event; in this way, all indices forward from the card contain a list of 
         //   undealt Cards in some permutation.
-        int cardIndex = numPlays;
-        while (!card.equals(simDeck[cardIndex])) {
-            cardIndex++;
-        }
-        simDeck[cardIndex] = simDeck[numPlays];
-        simDeck[numPlays] = card;
+        stopPondering(); // (its results for the state before this card are kept)
+        ponderedRollouts = 0;
+        reusedRollouts = 0;
+        dealCard(card);
 
-        if (numPlays == 0) { // trivial first play
-            plays[0] = 0;
-            System.arraycopy(plays, numPlays, legalPlayLists[numPlays], 0, 25);
-        } else if (numPlays == 1) { // nearly trivial second play
-            // compute average time per move evaluation
-            int remainingPlays = NUM_POS - numPlays; // ignores triviality of last play to keep a conservative margin for game completion
-            long millisPerPlay = millisRemaining / remainingPlays; // dividing time evenly with future getPlay() calls
-            long millisPerMoveEval = millisPerPlay / remainingPlays; // dividing time evenly across moves now considered
-            int bestPlay = 5;
-            
-            System.arraycopy(plays, numPlays, legalPlayLists[numPlays], 0, remainingPlays);
-
-            double maxAverageScore = Double.NEGATIVE_INFINITY; // maximum average score found for moves so far            
-
-            // Only consider two options: playing in the same column or not
-            for (int i = 5; i <= 6; i++) {
-                long startTime = System.currentTimeMillis();
-                long endTime = startTime + millisPerMoveEval; // compute when MC simulations should end
-                makePlay(card, i / SIZE, i % SIZE);  // play the card at the empty position
-                int simCount = 0;
-                int scoreTotal = 0;
-
-                while (System.currentTimeMillis() < endTime) { // perform as many MC simulations as possible through the allotted time
-                    // Perform a Monte Carlo simulation of greedy play to the depth limit or game end, whichever comes first.
-                    scoreTotal += simGreedyPlay(depthLimit);  // accumulate MC simulation scores
-                    simCount++; // increment count of MC simulations
-                }
-                undoPlay(); // undo the play under evaluation
-                // update (if necessary) the maximum average score and the list of best plays
-                double averageScore = (double) scoreTotal / simCount;
-                if (averageScore >= maxAverageScore) {
-                    maxAverageScore = averageScore;
-                    if (averageScore > maxAverageScore)
-                        bestPlay = i;
-                    else if (random.nextInt(1) == 1)
-                        bestPlay = i;
-                }
-            }
-            // update our list of plays, recording the chosen play in its sequential position; all onward from numPlays are empty positions
-            int bestPlayIndex = numPlays;
-            while (plays[bestPlayIndex] != bestPlay) {
-                bestPlayIndex++;
-            }
-            plays[bestPlayIndex] = plays[numPlays];
-            plays[numPlays] = bestPlay;
-        } else if (numPlays < 24) { // not the forced last play
+        if (numPlays < 24) { // not the forced last play
             int remainingPlays = NUM_POS - numPlays;  // ignores triviality of last play to keep a conservative margin for game completion
-            long millisPerPlay, millisPerMoveEval;
+            long nanosRemaining = TimeBudget.millisToNanos(millisRemaining); // (in nanoseconds, so that late shares do not round to 0 ms)
+            long nanosPerPlay, nanosPerMoveEval;
 
             if (numPlays < 5) {
                 // compute average time per move evaluation
-                millisPerPlay = millisRemaining / remainingPlays; // dividing time evenly with future getPlay() calls
-                millisPerMoveEval = millisPerPlay / remainingPlays; // dividing time evenly across moves now considered
+                nanosPerPlay = nanosRemaining / remainingPlays; // dividing time evenly with future getPlay() calls
+                nanosPerMoveEval = nanosPerPlay / remainingPlays; // dividing time evenly across moves now considered
             } else {
                 int remainingEvals = 0;
                 for (int i = numPlays; i < SIZE * SIZE; i++) {
                     remainingEvals += (SIZE * SIZE) - numPlays;
                 }
-                millisPerMoveEval = millisRemaining / (remainingEvals + 4);
-            }
-
-            // copy the play positions (row-major indices) that are empty
-            System.arraycopy(plays, numPlays, legalPlayLists[numPlays], 0, remainingPlays);
-            
-            double maxAverageScore = Double.NEGATIVE_INFINITY; // maximum average score found for moves so far
-            ArrayList<Integer> bestPlays = new ArrayList<>(); // all plays yielding the maximum average score 
-            for (int i = 0; i < remainingPlays; i++) { // for each legal play position
-                int play = legalPlayLists[numPlays][i];
-                long startTime = System.currentTimeMillis();
-                long endTime = startTime + millisPerMoveEval; // compute when MC simulations should end
-                makePlay(card, play / SIZE, play % SIZE);  // play the card at the empty position
-                int simCount = 0;
-                int scoreTotal = 0;
-                while (System.currentTimeMillis() < endTime) { // perform as many MC simulations as possible through the allotted time
-                    // Perform a Monte Carlo simulation of greedy play to the depth limit or game end, whichever comes first.
-                    scoreTotal += simGreedyPlay(depthLimit);  // accumulate MC simulation scores
-                    simCount++; // increment count of MC simulations
+                nanosPerMoveEval = nanosRemaining / (remainingEvals + 4);
+            }
+
+            // list one play position (row-major index) for each class of equivalent empty positions
+            int numCandidates = getCandidatePlays(legalPlayLists[numPlays]);
+            int bestPlay = legalPlayLists[numPlays][0]; // a play yielding the maximum average score
+            if (numCandidates > 1) {
+                // spend the time of all empty positions on the distinct candidates
+                nanosPerMoveEval = nanosPerMoveEval * remainingPlays / numCandidates;
+                if (reuseTable != null) { // collect the simulations of the candidates' states kept from the last decision
+                    promoteReusedRollouts(card, legalPlayLists[numPlays], numCandidates);
                 }
-                undoPlay(); // undo the play under evaluation
-                // update (if necessary) the maximum average score and the list of best plays
-                double averageScore = (double) scoreTotal / simCount;
-                if (averageScore >= maxAverageScore) {
+                // estimate the average score of each candidate play position
+                evaluatePlays(card, legalPlayLists[numPlays], numCandidates, nanosPerMoveEval, playAverages);
+                if (reuseTable != null) {
+                    for (int i = 0; i < numCandidates; i++) {
+                        addRollouts(i, legalPlayLists[numPlays][i], reusedTotals[i], reusedCounts[i], playAverages);
+                    }
+                }
+                if (ponderPlays == numPlays) { // add the simulations of this card pondered since the last play
+                    mergePonderedRollouts(card, legalPlayLists[numPlays], numCandidates, playAverages);
+                }
+                double maxAverageScore = Double.NEGATIVE_INFINITY; // maximum average score found for moves so far
+                int numBestPlays = 0; // number of plays yielding the maximum average score (for reservoir sampling of ties)
+                for (int i = 0; i < numCandidates; i++) { // for each candidate play position
+                    int play = legalPlayLists[numPlays][i];
+                    // update (if necessary) the maximum average score and the best play, choosing uniformly among ties
+                    double averageScore = playAverages[i];
                     if (averageScore > maxAverageScore) {
-                        bestPlays.clear();
+                        maxAverageScore = averageScore;
+                        bestPlay = play;
+                        numBestPlays = 1;
+                    } else if (averageScore == maxAverageScore && random.nextInt(++numBestPlays) == 0) {
+                        bestPlay = play;
                     }
-                    bestPlays.add(play);
-                    maxAverageScore = averageScore;
                 }
             }
-            int bestPlay = bestPlays.get(random.nextInt(bestPlays.size())); // choose a best play (breaking ties randomly)
             // update our list of plays, recording the chosen play in its sequential position; all onward from numPlays are empty positions
-            int bestPlayIndex = numPlays;
-            while (plays[bestPlayIndex] != bestPlay) {
-                bestPlayIndex++;
-            }
-            plays[bestPlayIndex] = plays[numPlays];
-            plays[numPlays] = bestPlay;
+            selectPlay(bestPlay);
         }
         int[] playPos = {plays[numPlays] / SIZE, plays[numPlays] % SIZE}; // decode it into row and column
         makePlay(card, playPos[0], playPos[1]); // make the chosen play (not undoing this time)
+        if (numPonderCards > 0 && rolloutsPerPlay == 0 && numPlays < NUM_POS - 1) { // (the last play is forced)
+            startPondering();
+        }
         return playPos; // return the chosen play
     }
 
+    /**
+     * List one empty position of each class of positions that are equivalent
+     * under the symmetries of the current grid, in plays order. Since scores
+     * depend only on the contents of rows and columns, empty rows may be
+     * permuted among themselves, as may empty columns, so an empty position is
+     * characterized by its row if that row is occupied (else "empty") and its
+     * column if that column is occupied (else "empty"). When no two cards
+     * share a row or column, transposing the grid (and matching each card's
+     * row to its column) is a symmetry as well, so each position is instead
+     * characterized by the unordered pair of the cards (or "empty") in its row
+     * and column. E.g. after the first play, the only classes are the
+     * positions sharing a line with the card and those that do not.
+     *
+     * @param candidates array to be filled with candidate play positions
+     * (row-major indices)
+     * @return the number of candidate play positions
+     */
+    protected int getCandidatePlays(int[] candidates) {
+        for (int i = 0; i < SIZE; i++) {
+            rowTags[i] = colTags[i] = EMPTY_TAG;
+        }
+        transposable = true;
+        for (int i = 0; i < numPlays; i++) {
+            int row = plays[i] / SIZE, col = plays[i] % SIZE;
+            if (rowTags[row] != EMPTY_TAG || colTags[col] != EMPTY_TAG) {
+                transposable = false;
+            }
+            rowTags[row] = i; // (plays index of a card in the row)
+            colTags[col] = i;
+        }
+        int numCandidates = 0;
+        for (int i = numPlays; i < NUM_POS; i++) {
+            int play = plays[i];
+            int playClass = getPlayClass(play, transposable);
+            if (!candidateClasses[playClass]) {
+                candidateClasses[playClass] = true;
+                candidates[numCandidates++] = play;
+            }
+        }
+        for (int i = 0; i < numCandidates; i++) { // clear the class marks
+            candidateClasses[getPlayClass(candidates[i], transposable)] = false;
+        }
+        return numCandidates;
+    }
+
+    /**
+     * Return the symmetry class of an empty position as tagged by
+     * getCandidatePlays.
+     */
+    private int getPlayClass(int play, boolean transposable) {
+        int rowTag = rowTags[play / SIZE], colTag = colTags[play % SIZE];
+        if (!transposable) { // tag occupied lines by index rather than by card
+            rowTag = rowTag == EMPTY_TAG ? EMPTY_TAG : play / SIZE;
+            colTag = colTag == EMPTY_TAG ? EMPTY_TAG : play % SIZE;
+        } else if (rowTag > colTag) { // order the pair of cards
+            int tag = rowTag;
+            rowTag = colTag;
+            colTag = tag;
+        }
+        return rowTag * (EMPTY_TAG + 1) + colTag;
+    }
+
+    /**
+     * Set the number of threads evaluating candidate plays in getPlay. With a
+     * single thread (the default), each candidate is sampled in turn for its
+     * own time slice. With more, every thread samples all candidates in
+     * rotation for the combined time of those slices, each on its own copy of
+     * the game state, and the rollout totals of all threads are merged.
+     *
+     * @param numThreads number of candidate evaluation threads
+     */
+    public void setNumThreads(int numThreads) {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.numThreads = Math.max(1, numThreads);
+        workers = null;
+    }
+
+    /**
+     * Set the number of threads evaluating hand values while tuning them in
+     * setPointSystem (by default, the number of available processors). The
+     * tuned values do not depend on the number of threads, only on how many
+     * evaluations fit in the time.
+     *
+     * @param tuningThreads number of hand value evaluation threads
+     */
+    public void setTuningThreads(int tuningThreads) {
+        if (tuningPool != null) {
+            tuningPool.shutdown();
+            tuningPool = null;
+        }
+        this.tuningThreads = Math.max(1, tuningThreads);
+        tuningWorkers = null;
+    }
+
+    /**
+     * Set a fixed number of Monte Carlo simulations per candidate play in
+     * getPlay, in place of time-limited simulation. Each candidate is then
+     * simulated by a worker from a copy of the current state, with its own
+     * random stream split in order from the player's stream, so that decisions
+     * depend only on the seed, and not on timing or the number of threads,
+     * and games may be replayed exactly. Simulation time is not bounded in
+     * this mode.
+     *
+     * @param rolloutsPerPlay simulations per candidate play (0 for
+     * time-limited simulation, the default)
+     */
+    public void setRolloutsPerPlay(int rolloutsPerPlay) {
+        this.rolloutsPerPlay = Math.max(0, rolloutsPerPlay);
+    }
+
+    /**
+     * Set adaptive allocation of rollouts among the candidate plays in
+     * getPlay. Instead of giving each candidate an equal time slice, the
+     * combined time of the slices is spent on the candidates the bandit keeps
+     * active, and the decision ends early once a single candidate remains.
+     * Applies to single-thread, time-limited evaluation.
+     *
+     * @param bandit rollout bandit with at least NUM_POS arms (null for equal
+     * time slices, the default)
+     */
+    public void setRolloutBandit(RolloutBandit bandit) {
+        this.bandit = bandit;
+    }
+
+    /**
+     * Set the number of rollouts advanced in lockstep by the rollout kernel
+     * (32 by default), or 0 to perform rollouts one at a time with
+     * simGreedyPlay. Both make the same greedy plays, but batches are faster.
+     * In time-limited simulation, the clock is checked between batches.
+     *
+     * @param batchSize rollouts per batch (0 for no batching)
+     */
+    public void setRolloutBatchSize(int batchSize) {
+        kernel = batchSize > 0 ? new RolloutKernel(batchSize) : null;
+        if (kernel != null) {
+            kernel.setPlyTables(plyTables);
+        }
+    }
+
+    /**
+     * Keep the tuned hand values of each point system in the given directory,
+     * so that setPointSystem starts tuning from the values tuned for the same
+     * point system (or a positive scaling of it) in an earlier run instead
+     * of the values derived from the scores.
+     *
+     * @param directory cache directory (null for no cache, the default)
+     */
+    public void setHandValuesCache(File directory) {
+        handValsCache = directory == null ? null : new HandValuesCache(directory);
+    }
+
+    /**
+     * Value rollout plays with an n-tuple network trained by TD learning from
+     * self-play in setPointSystem, starting from the tuned hand values, in
+     * place of the hand values of each turn bucket. The training time is
+     * reserved from the setPointSystem budget (at most half of it) and spent
+     * after hand value tuning, which uses the hand values alone. Takes effect
+     * at the next setPointSystem.
+     *
+     * @param trainingMillis milliseconds of network training (0 for hand
+     * values, the default)
+     */
+    public void setValueNetwork(long trainingMillis) {
+        networkMillis = Math.max(0, trainingMillis);
+    }
+
+    /**
+     * Set the number of undealt cards pondered between getPlay calls. After
+     * each play, a background thread simulates the candidate plays of the
+     * given number of cards from a copy of the game state, choosing the cards
+     * whose two best plays by the hand value heuristic are closest in value,
+     * since those decisions are the hardest. The next getPlay stops the thread
+     * and, if its card was pondered, adds the pondered simulations to its
+     * own. Applies to time-limited simulation; the last play of a game and
+     * init() also stop the thread.
+     *
+     * @param numCards number of cards pondered (0 for no pondering, the
+     * default)
+     */
+    public void setPondering(int numCards) {
+        stopPondering();
+        numPonderCards = Math.max(0, Math.min(NUM_CARDS, numCards));
+    }
+
+    /**
+     * Stop the pondering thread, if any, waiting for it to finish.
+     */
+    public void stopPondering() {
+        if (ponderThread != null) {
+            stopPonder = true;
+            try {
+                ponderThread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            ponderThread = null;
+        }
+    }
+
+    /**
+     * Keep the scores of rollouts between decisions in a transposition table
+     * of the given size. Each rollout of a candidate play is recorded under
+     * the state after its first simulated play, and the candidate states of
+     * the next decision are among those states (the chosen play, then the
+     * card dealt next at each empty position), so the next decision starts
+     * with the rollouts already simulated from them, summed over each class
+     * of equivalent positions. Applies to single-thread, time-limited
+     * evaluation with rollouts to game end (a depth limit of at least 25).
+     *
+     * @param maxBytes maximum memory of the table in bytes (0 for no reuse,
+     * the default)
+     */
+    public void setStatisticsReuse(long maxBytes) {
+        reuseTable = maxBytes > 0 ? new TranspositionTable(maxBytes) : null;
+    }
+
+    /**
+     * Return the number of simulations kept from earlier decisions and reused
+     * by the last decision.
+     *
+     * @return the number of reused simulations
+     */
+    public int getReusedRollouts() {
+        return reusedRollouts;
+    }
+
+    /**
+     * Return the number of pondered simulations reused by the last decision.
+     *
+     * @return the number of pondered simulations of the last card dealt (0 if
+     * it was not pondered)
+     */
+    public int getPonderedRollouts() {
+        return ponderedRollouts;
+    }
+
+    /**
+     * Return the number of rollouts of each candidate play of the last
+     * decision.
+     *
+     * @return rollouts indexed by row-major position (0 for positions that
+     * were not candidates)
+     */
+    public int[] getRolloutCounts() {
+        return playRollouts.clone();
+    }
+
+    /**
+     * Estimate the average Monte Carlo score of playing the given card at each
+     * of the given candidate positions, taking at most nanosPerMoveEval
+     * nanoseconds per candidate in all (unless a fixed number of rollouts per
+     * play is set).
+     *
+     * @param card card to play
+     * @param candidates candidate play positions (row-major indices)
+     * @param numCandidates number of candidate play positions
+     * @param nanosPerMoveEval nanoseconds allotted per candidate
+     * @param averages average scores indexed like candidates, to be filled
+     * by this method
+     */
+    protected void evaluatePlays(final Card card, final int[] candidates, final int numCandidates,
+            long nanosPerMoveEval, double[] averages) {
+        // split a random stream for each candidate in order, so that each candidate's simulations are reproducible
+        for (int i = 0; i < numCandidates; i++) {
+            candidateRandoms[i] = random.split();
+        }
+        Arrays.fill(playRollouts, 0);
+        if (numThreads == 1 && rolloutsPerPlay == 0 && bandit != null) {
+            SplittableRandom playerRandom = random;
+            // spend the combined time of the candidates' slices on the candidates still competing
+            timeBudget.start(nanosPerMoveEval * numCandidates);
+            bandit.reset(numCandidates);
+            while (!bandit.isDone() && timeBudget.tick(kernel == null ? 1 : kernel.getBatchSize())) {
+                int i = bandit.nextArm();
+                int play = candidates[i];
+                random = candidateRandoms[i];
+                makePlay(card, play / SIZE, play % SIZE);
+                long stateKey = reuseTable == null ? 0L : getGridKey();
+                if (kernel == null) {
+                    bandit.update(i, (int) simulateAndRecord(1, stateKey));
+                } else { // a batch per turn of the candidate
+                    simulateAndRecord(kernel.getBatchSize(), stateKey);
+                    for (int n = 0; n < kernel.getBatchSize(); n++) {
+                        bandit.update(i, kernel.getScore(n));
+                    }
+                }
+                undoPlay();
+            }
+            random = playerRandom;
+            for (int i = 0; i < numCandidates; i++) {
+                averages[i] = bandit.getMean(i);
+                playRollouts[candidates[i]] = bandit.getCount(i);
+            }
+            return;
+        }
+        if (numThreads == 1 && rolloutsPerPlay == 0) {
+            SplittableRandom playerRandom = random;
+            timeBudget.start(nanosPerMoveEval * numCandidates);
+            for (int i = 0; i < numCandidates; i++) { // for each candidate play position
+                int play = candidates[i];
+                random = candidateRandoms[i];
+                timeBudget.startSlice(numCandidates - i); // an equal share of the time remaining for this and later candidates
+                makePlay(card, play / SIZE, play % SIZE);  // play the card at the empty position
+                long stateKey = reuseTable == null ? 0L : getGridKey(); // (keys the states after the first simulated play)
+                int simCount = 0;
+                long scoreTotal = 0;
+                int batchSize = kernel == null ? 1 : kernel.getBatchSize(); // MC simulations per step
+                while (timeBudget.tick(batchSize)) { // perform as many MC simulations as possible through the allotted time
+                    // Perform Monte Carlo simulations of greedy play to the depth limit or game end, whichever comes first.
+                    scoreTotal += simulateAndRecord(batchSize, stateKey);  // accumulate MC simulation scores
+                    simCount += batchSize; // increment count of MC simulations
+                }
+                undoPlay(); // undo the play under evaluation
+                averages[i] = (double) scoreTotal / simCount;
+                playRollouts[play] = simCount;
+            }
+            random = playerRandom;
+            return;
+        }
+        if (workers == null) {
+            pool = new ForkJoinPool(numThreads);
+            workers = new OurPlayer[numThreads];
+            for (int w = 0; w < numThreads; w++) {
+                workers[w] = new OurPlayer(depthLimit);
+            }
+        }
+        // all threads sample until the time the sequential evaluation of all candidates would end
+        final long deadline = System.nanoTime() + nanosPerMoveEval * numCandidates;
+        final AtomicInteger nextCandidate = new AtomicInteger(); // next candidate to claim with fixed rollouts
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int w = 0; w < numThreads; w++) {
+            final OurPlayer worker = workers[w];
+            final int firstCandidate = w % numCandidates; // stagger the rotations of the threads
+            worker.copyStateFrom(this);
+            if (rolloutsPerPlay == 0) {
+                worker.random = random.split();
+                worker.timeBudget.setDeadline(deadline);
+            }
+            for (int i = 0; i < numCandidates; i++) {
+                worker.candidateTotals[i] = 0;
+                worker.candidateCounts[i] = 0;
+            }
+            tasks.add(() -> {
+                if (rolloutsPerPlay > 0) {
+                    // claim whole candidates, each simulated from the current state with its own stream
+                    for (int i = nextCandidate.getAndIncrement(); i < numCandidates; i = nextCandidate.getAndIncrement()) {
+                        worker.copyStateFrom(this);
+                        worker.random = candidateRandoms[i];
+                        worker.simulate(card, candidates[i], i, rolloutsPerPlay);
+                    }
+                } else {
+                    // simulate all candidates in rotation with the worker's stream
+                    int batchSize = worker.kernel == null ? 1 : worker.kernel.getBatchSize();
+                    for (int i = firstCandidate; worker.timeBudget.tick(batchSize); i = (i + 1) % numCandidates) {
+                        worker.simulate(card, candidates[i], i, batchSize);
+                    }
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < numCandidates; i++) {
+            long scoreTotal = 0;
+            int simCount = 0;
+            for (OurPlayer worker : workers) {
+                scoreTotal += worker.candidateTotals[i];
+                simCount += worker.candidateCounts[i];
+            }
+            averages[i] = (double) scoreTotal / simCount;
+            playRollouts[candidates[i]] = simCount;
+        }
+    }
+
+    /**
+     * Perform the given number of Monte Carlo simulations of the given play,
+     * adding their scores and count to the totals of the given candidate.
+     */
+    private void simulate(Card card, int play, int candidate, int numRollouts) {
+        makePlay(card, play / SIZE, play % SIZE);
+        candidateTotals[candidate] += simulateRollouts(numRollouts);
+        candidateCounts[candidate] += numRollouts;
+        undoPlay();
+    }
+
+    /**
+     * Choose the undealt cards to ponder and start the pondering thread on a
+     * copy of the current state.
+     */
+    private void startPondering() {
+        int numCards = selectPonderCards();
+        if (ponderer == null) {
+            ponderer = new OurPlayer(depthLimit);
+        }
+        final OurPlayer worker = ponderer;
+        worker.copyStateFrom(this);
+        worker.random = random.split();
+        Arrays.fill(ponderTotals, 0);
+        Arrays.fill(ponderCounts, 0);
+        ponderPlays = numPlays;
+        stopPonder = false;
+        ponderThread = new Thread(() -> worker.ponder(this, numCards), "ponder");
+        ponderThread.setDaemon(true); // (never keeps an abandoned game running)
+        ponderThread.start();
+    }
+
+    /**
+     * List in ponderCards the undealt cards whose two best candidate plays by
+     * the rollout table of the next play are closest in value, closest first.
+     *
+     * @return the number of cards listed
+     */
+    private int selectPonderCards() {
+        int[] candidates = legalPlayLists[numPlays];
+        int numCandidates = getCandidatePlays(candidates);
+        int[] keyValues = plyTables[numPlays]; // (the table the rollouts of the next play rank it by, as in simGreedyPlay)
+        int numCards = 0;
+        for (int c = numPlays; c < NUM_CARDS; c++) {
+            Card card = simDeck[c];
+            int best = Integer.MIN_VALUE, second = Integer.MIN_VALUE;
+            for (int i = 0; i < numCandidates; i++) {
+                // only the row and column of the play change value
+                int row = candidates[i] / SIZE, col = SIZE + candidates[i] % SIZE;
+                int delta = keyValues[lines.getKeyWith(row, card)] - keyValues[lines.getHandKey(row)]
+                        + keyValues[lines.getKeyWith(col, card)] - keyValues[lines.getHandKey(col)];
+                if (delta > best) {
+                    second = best;
+                    best = delta;
+                } else if (delta > second) {
+                    second = delta;
+                }
+            }
+            int gap = numCandidates > 1 ? best - second : Integer.MAX_VALUE;
+            // insert the card by gap, keeping at most numPonderCards
+            if (numCards == numPonderCards) {
+                if (gap >= ponderGaps[numCards - 1]) {
+                    continue;
+                }
+                numCards--;
+            }
+            int k = numCards++;
+            for (; k > 0 && ponderGaps[k - 1] > gap; k--) {
+                ponderGaps[k] = ponderGaps[k - 1];
+                ponderCards[k] = ponderCards[k - 1];
+            }
+            ponderGaps[k] = gap;
+            ponderCards[k] = card;
+        }
+        return numCards;
+    }
+
+    /**
+     * Simulate the candidate plays of the owner's pondered cards in rotation,
+     * a batch at a time, adding to the owner's pondered totals until the
+     * owner stops pondering (as the pondering player).
+     *
+     * @param owner player pondering
+     * @param numCards number of pondered cards
+     */
+    private void ponder(OurPlayer owner, int numCards) {
+        int[] candidates = legalPlayLists[numPlays];
+        int numCandidates = getCandidatePlays(candidates); // (the same for every card)
+        int batchSize = kernel == null ? 1 : kernel.getBatchSize();
+        while (!owner.stopPonder) {
+            for (int k = 0; k < numCards && !owner.stopPonder; k++) {
+                Card card = owner.ponderCards[k];
+                int base = card.getCardId() * NUM_POS;
+                for (int i = 0; i < numCandidates && !owner.stopPonder; i++) {
+                    int play = candidates[i];
+                    makePlay(card, play / SIZE, play % SIZE);
+                    owner.ponderTotals[base + play] += simulateRollouts(batchSize);
+                    owner.ponderCounts[base + play] += batchSize;
+                    undoPlay();
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the pondered simulations of the given card to the average scores
+     * and rollout counts of its candidate plays.
+     */
+    private void mergePonderedRollouts(Card card, int[] candidates, int numCandidates, double[] averages) {
+        int base = card.getCardId() * NUM_POS;
+        for (int i = 0; i < numCandidates; i++) {
+            int play = candidates[i];
+            ponderedRollouts += ponderCounts[base + play];
+            addRollouts(i, play, ponderTotals[base + play], ponderCounts[base + play], averages);
+        }
+    }
+
+    /**
+     * List the kept simulations of the states after each candidate play of
+     * the given card in reusedTotals and reusedCounts, summing over the
+     * positions equivalent to each candidate, and keep them in the current
+     * generation of the table.
+     */
+    private void promoteReusedRollouts(Card card, int[] candidates, int numCandidates) {
+        reuseTable.newGeneration();
+        for (int i = 0; i < numCandidates; i++) {
+            reusedTotals[i] = 0;
+            reusedCounts[i] = 0;
+        }
+        getCandidatePlays(reusePlays); // (tags the symmetry classes of the current grid)
+        long gridKey = getGridKey();
+        for (int j = numPlays; j < NUM_POS; j++) {
+            int pos = plays[j];
+            long key = gridKey ^ GameState.getPlacementKey(card.getCardId(), pos);
+            int entry = reuseTable.probe(key);
+            if (entry < 0) {
+                continue;
+            }
+            double mean = reuseTable.getMean(entry);
+            int visits = reuseTable.getVisits(entry);
+            reuseTable.store(key, mean, visits); // (renews the generation of the entry)
+            int playClass = getPlayClass(pos, transposable);
+            for (int i = 0; i < numCandidates; i++) {
+                if (getPlayClass(candidates[i], transposable) == playClass) {
+                    reusedTotals[i] += mean * visits;
+                    reusedCounts[i] += visits;
+                    reusedRollouts += visits;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the given simulations to the average score and rollout count of
+     * the given candidate play.
+     */
+    private void addRollouts(int candidate, int play, double scoreTotal, int count, double[] averages) {
+        if (count > 0) {
+            int simCount = playRollouts[play];
+            double total = simCount == 0 ? 0 : averages[candidate] * simCount;
+            averages[candidate] = (total + scoreTotal) / (simCount + count);
+            playRollouts[play] = simCount + count;
+        }
+    }
+
+    /**
+     * Return the Zobrist hash of the grid (see GameState.getHash()).
+     */
+    private long getGridKey() {
+        long key = 0L;
+        for (int i = 0; i < numPlays; i++) {
+            int play = plays[i];
+            key ^= GameState.getPlacementKey(grid[play / SIZE][play % SIZE].getCardId(), play);
+        }
+        return key;
+    }
+
+    /**
+     * Perform the given number of Monte Carlo simulations from the current
+     * state, in lockstep batches of the rollout kernel if set, and return
+     * their total score.
+     *
+     * @param numRollouts number of simulations
+     * @return the total score of the simulations
+     */
+    protected long simulateRollouts(int numRollouts) {
+        long scoreTotal = 0;
+        if (kernel == null) {
+            for (int n = 0; n < numRollouts; n++) {
+                scoreTotal += simGreedyPlay(depthLimit);
+            }
+            return scoreTotal;
+        }
+        kernel.load(grid, numPlays, simDeck, plays);
+        for (int n = 0; n < numRollouts; n += kernel.getBatchSize()) {
+            scoreTotal += kernel.run(Math.min(kernel.getBatchSize(), numRollouts - n), depthLimit, random);
+        }
+        return scoreTotal;
+    }
+
+    /**
+     * Perform the given number of Monte Carlo simulations from the current
+     * state as simulateRollouts does, adding each score to the reuse table
+     * entry of the state after its first simulated play, if the simulations
+     * reach game end.
+     *
+     * @param numRollouts number of simulations
+     * @param stateKey Zobrist hash of the current grid
+     * @return the total score of the simulations
+     */
+    private long simulateAndRecord(int numRollouts, long stateKey) {
+        if (reuseTable == null || numPlays == NUM_POS || depthLimit < NUM_POS - numPlays) {
+            return simulateRollouts(numRollouts);
+        }
+        long scoreTotal = 0;
+        if (kernel == null) {
+            for (int n = 0; n < numRollouts; n++) {
+                int score = simGreedyPlay(depthLimit);
+                // the first simulated play is left at index numPlays of simDeck and plays
+                reuseTable.update(stateKey ^ GameState.getPlacementKey(simDeck[numPlays].getCardId(), plays[numPlays]), score);
+                scoreTotal += score;
+            }
+            return scoreTotal;
+        }
+        kernel.load(grid, numPlays, simDeck, plays);
+        for (int n = 0; n < numRollouts; n += kernel.getBatchSize()) {
+            int batchSize = Math.min(kernel.getBatchSize(), numRollouts - n);
+            scoreTotal += kernel.run(batchSize, depthLimit, random);
+            for (int r = 0; r < batchSize; r++) {
+                reuseTable.update(stateKey ^ GameState.getPlacementKey(kernel.getFirstCardId(r), kernel.getFirstPlay(r)),
+                        kernel.getScore(r));
+            }
+        }
+        return scoreTotal;
+    }
+
+    /**
+     * Copy the game state (grid, simulation deck, plays, and row and column
+     * state) of another player.
+     *
+     * @param other player whose game state is copied
+     */
+    protected void copyStateFrom(OurPlayer other) {
+        numPlays = other.numPlays;
+        for (int row = 0; row < SIZE; row++) {
+            System.arraycopy(other.grid[row], 0, grid[row], 0, SIZE);
+        }
+        System.arraycopy(other.simDeck, 0, simDeck, 0, NUM_CARDS);
+        System.arraycopy(other.deckIndex, 0, deckIndex, 0, NUM_CARDS);
+        System.arraycopy(other.plays, 0, plays, 0, NUM_POS);
+        System.arraycopy(other.playIndex, 0, playIndex, 0, NUM_POS);
+        lines.copyFrom(other.lines);
+        System.arraycopy(other.plyTables, 0, plyTables, 0, NUM_POS);
+        if (other.kernel == null) {
+            kernel = null;
+        } else {
+            if (kernel == null || kernel.getBatchSize() != other.kernel.getBatchSize()) {
+                kernel = new RolloutKernel(other.kernel.getBatchSize());
+            }
+            kernel.setPlyTables(plyTables);
+        }
+    }
+
     /**
      * From the chosen play, perform simulated Card draws and greedy placement
      * (depthLimit) iterations forward and return the resulting grid score.
@@ -325,76 +1136,110 @@ public class OurPlayer implements PokerSquaresPlayer {
         }
         if (depthLimit == 0) { // with zero depth limit, return current score
             //return system.getScore(grid);
-            return evalGrid(grid, numPlays - 1);
+            return numPlays == 0 ? 0 : getLinesValue(plyTables[numPlays - 1]); // (the table of the last play, as below)
         } else { // up to the non-zero depth limit or to game end, iteratively make the given number of greedy plays o
             int score = Integer.MIN_VALUE;
             int maxScore = Integer.MIN_VALUE;
             int depth = Math.min(depthLimit, NUM_POS - numPlays); // compute real depth limit, taking into account game end
             for (int d = 0; d < depth; d++) {
-                // generate a random card draw
-                int c = random.nextInt(NUM_CARDS - numPlays) + numPlays;
-                Card card = simDeck[c];
+                // generate a random card draw (or take the next card of the given deal)
+                Card card = simDeal != null ? simDeal[numPlays] : simDeck[random.nextInt(NUM_CARDS - numPlays) + numPlays];
                 // iterate through legal plays and choose the best greedy play (see similar approach in getPlay)
                 int remainingPlays = NUM_POS - numPlays;
                 System.arraycopy(plays, numPlays, legalPlayLists[numPlays], 0, remainingPlays);
                 maxScore = Integer.MIN_VALUE;
-                ArrayList<Integer> bestPlays = new ArrayList<Integer>();
+                // Use our partial hand scores of the turn except for the final evaluation
+                int[] keyValues = plyTables[numPlays];
+                int bestPlay = -1;
+                int numBestPlays = 0; // number of plays yielding maxScore so far (for reservoir sampling of ties)
                 for (int i = 0; i < remainingPlays; i++) {
                     int play = legalPlayLists[numPlays][i];
-                    makePlay(card, play / SIZE, play % SIZE);
-                    if (numPlays == 25) {
-                        score = this.system.getScore(grid);
-                    } else {
-                        // Use our partial hand scores except for the final evaluation
-                        score = evalGrid(grid, numPlays - 1);
-                    }
-                    if (score >= maxScore) {
-                        if (score > maxScore) {
-                            bestPlays.clear();
-                        }
-                        bestPlays.add(play);
+                    // only the row and column of the play change score
+                    int row = play / SIZE, col = SIZE + play % SIZE;
+                    score = keyValues[lines.getKeyWith(row, card)] - keyValues[lines.getHandKey(row)]
+                            + keyValues[lines.getKeyWith(col, card)] - keyValues[lines.getHandKey(col)];
+                    if (score > maxScore) {
                         maxScore = score;
+                        bestPlay = play;
+                        numBestPlays = 1;
+                    } else if (score == maxScore && random.nextInt(++numBestPlays) == 0) {
+                        bestPlay = play; // each of the k tied plays so far is kept with probability 1/k
                     }
-                    undoPlay();
                 }
-                int bestPlay = bestPlays.get(random.nextInt(bestPlays.size()));
                 makePlay(card, bestPlay / SIZE, bestPlay % SIZE);
             }
-            // At this point, the last maxScore value is the end value of this Monte Carlo situation.
+            // Score the lines with the table of the last play (point system scores at game end).
+            score = getLinesValue(plyTables[numPlays - 1]);
             // Undo MC plays.
             for (int d = 0; d < depth; d++) {
                 undoPlay();
             }
-            return maxScore;
+            return score;
         }
     }
 
     public void makePlay(Card card, int row, int col) {
         // match simDeck to event
-        int cardIndex = numPlays;
-        while (!card.equals(simDeck[cardIndex])) {
-            cardIndex++;
-        }
-        simDeck[cardIndex] = simDeck[numPlays];
-        simDeck[numPlays] = card;
+        dealCard(card);
 
         // update plays to reflect chosen play in sequence
         grid[row][col] = card;
-        int play = row * SIZE + col;
-        int j = 0;
-        while (plays[j] != play) {
-            j++;
-        }
-        plays[j] = plays[numPlays];
-        plays[numPlays] = play;
+        selectPlay(row * SIZE + col);
+        lines.add(card, row, col);
 
         // increment the number of plays taken
         numPlays++;
     }
 
+    /**
+     * Return the sum of the values of the rows and columns of the grid in the
+     * given line value table (e.g. one of plyTables).
+     *
+     * @param keyValues line values indexed by hand key
+     * @return the value of the grid
+     */
+    protected int getLinesValue(int[] keyValues) {
+        int value = 0;
+        for (int line = 0; line < 2 * SIZE; line++) {
+            value += keyValues[lines.getHandKey(line)];
+        }
+        return value;
+    }
+
+    /**
+     * Swap the given card into simDeck index numPlays, keeping deckIndex
+     * current.
+     *
+     * @param card card dealt
+     */
+    protected void dealCard(Card card) {
+        int cardIndex = deckIndex[card.getCardId()];
+        Card swapped = simDeck[numPlays];
+        simDeck[cardIndex] = swapped;
+        deckIndex[swapped.getCardId()] = cardIndex;
+        simDeck[numPlays] = card;
+        deckIndex[card.getCardId()] = numPlays;
+    }
+
+    /**
+     * Swap the given empty position into plays index numPlays, keeping
+     * playIndex current.
+     *
+     * @param play row-major position played
+     */
+    protected void selectPlay(int play) {
+        int playsIndex = playIndex[play];
+        int swapped = plays[numPlays];
+        plays[playsIndex] = swapped;
+        playIndex[swapped] = playsIndex;
+        plays[numPlays] = play;
+        playIndex[play] = numPlays;
+    }
+
     public void undoPlay() { // undo the previous play
         numPlays--;
         int play = plays[numPlays];
+        lines.remove(grid[play / SIZE][play % SIZE], play / SIZE, play % SIZE);
         grid[play / SIZE][play % SIZE] = null;
     }
 
@@ -406,30 +1251,6 @@ public class OurPlayer implements PokerSquaresPlayer {
         return "OurPlayer" + depthLimit;
     }
 
-    private int evalGrid(Card[][] grid, int turn) {
-        int[] handScores = new int[2 * SIZE];
-        for (int row = 0; row < SIZE; row++) {
-            Card[] hand = new Card[SIZE];
-            for (int col = 0; col < SIZE; col++) {
-                hand[col] = grid[row][col];
-            }
-            handScores[row] = handVals.get(turn, OurPokerHand.getPokerHand(hand));
-        }
-        for (int col = 0; col < SIZE; col++) {
-            Card[] hand = new Card[SIZE];
-            for (int row = 0; row < SIZE; row++) {
-                hand[row] = grid[row][col];
-            }
-            handScores[SIZE + col] = handVals.get(turn, OurPokerHand.getPokerHand(hand));
-        }
-
-        int totalScore = 0;
-        for (int handScore : handScores) {
-            totalScore += handScore;
-        }
-        return totalScore;
-    }
-
     /**
      * Get the score of the given Card hand (which may contain null values).
      *
@@ -493,4 +1314,80 @@ public class OurPlayer implements PokerSquaresPlayer {
         System.out.printf("%3d Total\n", totalScore);
     }
 
+    /**
+     * Check that greedy Monte Carlo simulation does not allocate memory, one
+     * rollout at a time (simGreedyPlay) and in the default RolloutKernel
+     * batches (simulateRollouts), reporting the bytes allocated per simulated
+     * game. Then check that a whole decision (evaluatePlays with the default
+     * settings) allocates only the pseudorandom number generator it splits
+     * for each candidate play.
+     *
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        OurPlayer player = new OurPlayer(25, 0);
+        player.setPointSystem(PokerSquaresPointSystem.getAmericanPointSystem(), 0);
+        player.init();
+        com.sun.management.ThreadMXBean threadBean
+                = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int numRollouts = 100000;
+        boolean allocationFree = true;
+        for (int mode = 0; mode < 2; mode++) { // simGreedyPlay, then simulateRollouts with the kernel
+            long startBytes = 0;
+            for (int round = 0; round < 2; round++) { // warm up (class loading, compilation), then measure
+                startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                if (mode == 0) {
+                    for (int i = 0; i < numRollouts; i++) {
+                        player.simGreedyPlay(25);
+                    }
+                } else {
+                    player.simulateRollouts(numRollouts);
+                }
+            }
+            long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+            double bytesPerRollout = (double) allocatedBytes / numRollouts;
+            System.out.printf("%s: %d rollouts, %d bytes allocated, %.4f bytes per rollout\n",
+                    mode == 0 ? "simGreedyPlay" : "simulateRollouts (kernel)", numRollouts, allocatedBytes, bytesPerRollout);
+            // any allocation within a rollout would cost at least one object header (>= 12 bytes) per rollout
+            allocationFree &= bytesPerRollout < 1.0;
+        }
+        System.out.println(allocationFree ? "OK: rollouts are allocation-free" : "FAILED: rollouts allocate memory");
+
+        // decisions of the sixth card of a game, 0.1 ms per candidate
+        Card[] deck = Card.getAllCards();
+        for (int i = 0; i < 5; i++) {
+            player.makePlay(deck[i * 7], i, i);
+        }
+        Card card = deck[5 * 7];
+        player.dealCard(card);
+        int[] candidates = new int[player.NUM_POS];
+        int numCandidates = player.getCandidatePlays(candidates);
+        double[] averages = new double[player.NUM_POS];
+        int numDecisions = 1000;
+        long startBytes = 0, decisionRollouts = 0;
+        for (int round = 0; round < 2; round++) { // warm up, then measure
+            startBytes = threadBean.getThreadAllocatedBytes(threadId);
+            decisionRollouts = 0;
+            for (int n = 0; n < numDecisions; n++) {
+                player.evaluatePlays(card, candidates, numCandidates, TimeBudget.millisToNanos(1) / 10, averages);
+                for (int i = 0; i < numCandidates; i++) {
+                    decisionRollouts += player.playRollouts[candidates[i]];
+                }
+            }
+        }
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        double bytesPerCandidate = (double) allocatedBytes / numDecisions / numCandidates;
+        SplittableRandom[] streams = new SplittableRandom[numDecisions];
+        startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        for (int n = 0; n < numDecisions; n++) {
+            streams[n] = player.random.split();
+        }
+        double bytesPerStream = (double) (threadBean.getThreadAllocatedBytes(threadId) - startBytes) / numDecisions;
+        System.out.printf("evaluatePlays: %d decisions of %d candidates, %d rollouts, %.1f bytes per candidate "
+                + "(%.1f per split stream), %.4f bytes per rollout\n", numDecisions, numCandidates, decisionRollouts,
+                bytesPerCandidate, bytesPerStream, (double) allocatedBytes / decisionRollouts);
+        System.out.println(bytesPerCandidate < bytesPerStream + 1.0 ? "OK: decisions allocate only the candidate streams"
+                : "FAILED: decisions allocate more than the candidate streams");
+    }
 }
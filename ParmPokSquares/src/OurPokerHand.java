@@ -1,3 +1,5 @@
+import java.nio.ByteBuffer;
+
 
 /**
  * OurPokerHand - An enumeration of Poker hand classes along with associated
@@ -31,6 +33,33 @@ public enum OurPokerHand {
     public static final int NUM_HANDS = OurPokerHand.values().length;
     public int id;
     public String name;
+    private static final OurPokerHand[] hands = values(); // partial hand classes by ordinal
+    // partial hand classification (ordinal) by PokerHand hand key, where the hand key
+    // (rank mask or rank pattern, and same-suit flag) implies the card count
+    // (mapped from a table file, if generated, and read in place; see TableFile)
+    private static final ByteBuffer keyClasses = TableFile.getTable("ourpokerhand-classes",
+            TableFile.getVersion(hands, OurPokerHand::getKeyClass, PokerHand.NUM_HAND_KEYS), PokerHand.NUM_HAND_KEYS,
+            OurPokerHand::buildKeyClasses);
+
+    /**
+     * Fill the given table with the partial hand classification (ordinal) of
+     * a representative hand of each hand key.
+     *
+     * @param table table of PokerHand.NUM_HAND_KEYS bytes
+     */
+    static void buildKeyClasses(ByteBuffer table) {
+        for (int key = 0; key < PokerHand.NUM_HAND_KEYS; key++) {
+            table.put(key, (byte) getKeyClass(key));
+        }
+    }
+
+    /**
+     * Return the partial hand classification (ordinal) of a representative
+     * hand of the given hand key.
+     */
+    private static int getKeyClass(int key) {
+        return classify(PokerHand.getKeyHand(key)).ordinal();
+    }
     /*
      creates a poker hand
      */
@@ -39,9 +68,29 @@ public enum OurPokerHand {
         this.id = id;
         this.name = name;
     }
-    // returns the pokerhand that the player has
 
+    /**
+     * Return the partial hand classification of a hand of five positions with
+     * the given hand key (see PokerHand.getHandKey).
+     *
+     * @param handKey hand key
+     * @return classification of partial Poker hands with the given hand key
+     */
+    public static OurPokerHand getPokerHand(int handKey) {
+        return hands[keyClasses.get(handKey)];
+    }
+
+    // returns the pokerhand that the player has
     public static OurPokerHand getPokerHand(Card[] hand) {
+        if (hand.length == PokerHand.MAX_KEY_CARDS) {
+            return getPokerHand(PokerHand.getHandKey(hand));
+        }
+        return classify(hand);
+    }
+
+    // returns the pokerhand that the player has by counting ranks and suits
+    // (the reference classification from which the hand key table is built)
+    private static OurPokerHand classify(Card[] hand) {
         int count = 0;
         // counts how many cards the player has in their hands
         for (int i = 0; i < hand.length; i++) {
@@ -477,6 +526,139 @@ public enum OurPokerHand {
         return OurPokerHand.HIGH_CARD5; // Otherwise, High Card.  This applies to empty Card arrays as well.
     }
 
+    /**
+     * Given a card set of at most five cards, classifies the current partial
+     * Poker hand with bit operations on the suit rank masks and returns the
+     * classification.
+     *
+     * @param hand - a Poker hand represented as a CardSet bit mask
+     * @return classification of the given Poker hand
+     */
+    public static OurPokerHand getPokerHand(long hand) {
+        int count = CardSet.size(hand);
+        if (count == 0) {
+            return OurPokerHand.ZERO_CARDS;
+        } else if (count == 1) {
+            return OurPokerHand.ONE_CARD;
+        }
+
+        int rankMask = CardSet.getRankMask(hand);
+        int pairMask = CardSet.getRankMask(hand, 2);
+        int tripMask = CardSet.getRankMask(hand, 3);
+        int quadMask = CardSet.getRankMask(hand, 4);
+        int numPairs = Integer.bitCount(pairMask) - Integer.bitCount(tripMask); // ranks occurring exactly twice
+        int numTrips = Integer.bitCount(tripMask) - Integer.bitCount(quadMask); // ranks occurring exactly three times
+        boolean hasFlush = CardSet.isSameSuit(hand);
+        int straightFlags = pairMask == 0 ? CardSet.getStraightFlags(rankMask) : 0; // straights need distinct ranks
+        boolean hasStraight = (straightFlags & CardSet.STRAIGHT) != 0;
+        boolean hasRoyal = (straightFlags & CardSet.ROYAL) != 0;
+        boolean hasInsideStraight = (straightFlags & CardSet.INSIDE_STRAIGHT) != 0;
+
+        if (count == 5) {
+            if (hasFlush) {
+                if (hasRoyal) {
+                    return OurPokerHand.ROYAL_FLUSH5;
+                }
+                if (hasStraight) {
+                    return OurPokerHand.STRAIGHT_FLUSH5;
+                }
+            }
+            if (quadMask != 0) {
+                return OurPokerHand.FOUR_OF_A_KIND5;
+            }
+            if (numTrips == 1 && numPairs == 1) {
+                return OurPokerHand.FULL_HOUSE5;
+            }
+            if (hasFlush) {
+                return OurPokerHand.FLUSH5;
+            }
+            if (hasStraight) {
+                return OurPokerHand.STRAIGHT5;
+            }
+            if (tripMask != 0) {
+                return OurPokerHand.THREE_OF_A_KIND5;
+            }
+            if (numPairs == 2) {
+                return OurPokerHand.TWO_PAIR5;
+            }
+            return numPairs == 1 ? OurPokerHand.ONE_PAIR5 : OurPokerHand.HIGH_CARD5;
+        } else if (count == 4) {
+            if (hasFlush) {
+                if (hasRoyal) {
+                    return OurPokerHand.ROYAL_FLUSH4;
+                }
+                if (hasStraight) {
+                    return OurPokerHand.STRAIGHT_FLUSH4;
+                }
+                if (hasInsideStraight) {
+                    return OurPokerHand.INSIDE_STRAIGHT_FLUSH4;
+                }
+            }
+            if (quadMask != 0) {
+                return OurPokerHand.FOUR_OF_A_KIND4;
+            }
+            if (hasFlush) {
+                return OurPokerHand.FLUSH4;
+            }
+            if (hasStraight) {
+                return OurPokerHand.STRAIGHT4;
+            }
+            if (hasInsideStraight) {
+                return OurPokerHand.INSIDE_STRAIGHT4;
+            }
+            if (tripMask != 0) {
+                return OurPokerHand.THREE_OF_A_KIND4;
+            }
+            if (numPairs == 2) {
+                return OurPokerHand.TWO_PAIR4;
+            }
+            return numPairs == 1 ? OurPokerHand.ONE_PAIR4 : OurPokerHand.HIGH_CARD4;
+        } else if (count == 3) {
+            if (hasFlush) {
+                if (hasRoyal) {
+                    return OurPokerHand.ROYAL_FLUSH3;
+                }
+                if (hasStraight) {
+                    return OurPokerHand.STRAIGHT_FLUSH3;
+                }
+                if (hasInsideStraight) {
+                    return OurPokerHand.INSIDE_STRAIGHT_FLUSH3;
+                }
+                return OurPokerHand.FLUSH3;
+            }
+            if (hasStraight) {
+                return OurPokerHand.STRAIGHT3;
+            }
+            if (hasInsideStraight) {
+                return OurPokerHand.INSIDE_STRAIGHT3;
+            }
+            if (tripMask != 0) {
+                return OurPokerHand.THREE_OF_A_KIND3;
+            }
+            return numPairs == 1 ? OurPokerHand.ONE_PAIR3 : OurPokerHand.HIGH_CARD3;
+        } else {
+            if (hasFlush) {
+                if (hasRoyal) {
+                    return OurPokerHand.ROYAL_FLUSH2;
+                }
+                if (hasStraight) {
+                    return OurPokerHand.STRAIGHT_FLUSH2;
+                }
+                if (hasInsideStraight) {
+                    return OurPokerHand.INSIDE_STRAIGHT_FLUSH2;
+                }
+                return OurPokerHand.FLUSH2;
+            }
+            if (hasStraight) {
+                return OurPokerHand.STRAIGHT2;
+            }
+            if (hasInsideStraight) {
+                return OurPokerHand.INSIDE_STRAIGHT2;
+            }
+            return numPairs == 1 ? OurPokerHand.ONE_PAIR2 : OurPokerHand.HIGH_CARD2;
+        }
+    }
+
     /**
      * Given a Card array (possibly with null values) classifies the current
      * Poker hand and returns the classification identification number.
@@ -1,3 +1,5 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * PokerHand - An enumeration of Poker hand classes along with associated identification numbers and Strings. 
@@ -18,12 +20,292 @@ public enum PokerHand {
 		this.name = name;
 	}
 	
+	// Hand keys
+	//
+	// A hand of at most five cards is classified from its rank pattern, i.e. the multiset of rank multiplicities 
+	// (e.g. {2, 1, 1} for one pair with two kickers), its set of ranks and whether all of its cards share one suit. 
+	// Only hands of distinct ranks can be straights or flushes, so such hands are keyed by their 13-bit rank mask 
+	// and a same-suit flag.  Every other hand is keyed by its rank pattern alone.  
+	// Hand keys are thus laid out as follows:
+	//   [0, NUM_RANK_MASKS)                      distinct ranks, mixed suits (or no cards), by rank mask
+	//   [NUM_RANK_MASKS, 2 * NUM_RANK_MASKS)     distinct ranks, one suit, by rank mask
+	//   [2 * NUM_RANK_MASKS, NUM_HAND_KEYS)      repeated ranks, by rank pattern index
+	
+	/**
+	 * the maximum number of cards in a keyed hand
+	 */
+	public static final int MAX_KEY_CARDS = 5;
+	/**
+	 * the number of rank masks, i.e. subsets of the ranks
+	 */
+	public static final int NUM_RANK_MASKS = 1 << Card.NUM_RANKS;
+	private static final int NUM_MULTIPLICITY_CODES = 6 * 3 * 2 * 2; // number of (#singles, #pairs, #trips, #quads) codes for at most 5 cards
+	private static final int[] patternIndex = new int[NUM_MULTIPLICITY_CODES]; // rank pattern index by multiplicity code (-1 if impossible)
+	private static final int[] patternCodes; // multiplicity code by rank pattern index
+	/**
+	 * the number of rank patterns (multisets of rank multiplicities) of hands with at most MAX_KEY_CARDS cards
+	 */
+	public static final int NUM_PATTERNS;
+	/**
+	 * the rank pattern index of an empty hand
+	 */
+	public static final int EMPTY_PATTERN = 0;
+	/**
+	 * the number of hand keys
+	 */
+	public static final int NUM_HAND_KEYS;
+	private static final int[][] patternAdd; // rank pattern after adding a card whose rank has the given multiplicity (-1 if too many cards)
+	private static final int[][] patternRemove; // rank pattern after removing a card whose rank has the given multiplicity
+	private static final boolean[] patternDistinct; // whether or not a rank pattern has only distinct ranks
+	private static final PokerHand[] hands = values(); // Poker hand classes by ordinal
+	private static final ByteBuffer keyClasses; // Poker hand classification (ordinal) by hand key
+
+	static {
+		// enumerate rank patterns as counts of singles, pairs, trips, and quads
+		Arrays.fill(patternIndex, -1);
+		int numPatterns = 0;
+		int[] codes = new int[NUM_MULTIPLICITY_CODES];
+		for (int numCards = 0; numCards <= MAX_KEY_CARDS; numCards++)
+			for (int c4 = 0; c4 <= 1; c4++)
+				for (int c3 = 0; c3 <= 1; c3++)
+					for (int c2 = 0; c2 <= 2; c2++) {
+						int c1 = numCards - 4 * c4 - 3 * c3 - 2 * c2;
+						if (c1 >= 0) {
+							int code = getMultiplicityCode(c1, c2, c3, c4);
+							patternIndex[code] = numPatterns;
+							codes[numPatterns++] = code;
+						}
+					}
+		NUM_PATTERNS = numPatterns;
+		patternCodes = Arrays.copyOf(codes, numPatterns);
+		NUM_HAND_KEYS = 2 * NUM_RANK_MASKS + NUM_PATTERNS;
+		
+		// compute rank pattern transitions for adding/removing a card with a rank of the given prior multiplicity
+		patternAdd = new int[NUM_PATTERNS][5];
+		patternRemove = new int[NUM_PATTERNS][5];
+		patternDistinct = new boolean[NUM_PATTERNS];
+		for (int pattern = 0; pattern < NUM_PATTERNS; pattern++) {
+			int[] counts = getMultiplicityCounts(patternCodes[pattern]);
+			patternDistinct[pattern] = counts[2] == 0 && counts[3] == 0 && counts[4] == 0;
+			int numCards = counts[1] + 2 * counts[2] + 3 * counts[3] + 4 * counts[4];
+			for (int m = 0; m <= 4; m++) {
+				patternAdd[pattern][m] = -1;
+				patternRemove[pattern][m] = -1;
+				if (m < 4 && numCards < MAX_KEY_CARDS && (m == 0 || counts[m] > 0)) {
+					counts[m]--; counts[m + 1]++;
+					patternAdd[pattern][m] = patternIndex[getMultiplicityCode(counts[1], counts[2], counts[3], counts[4])];
+					counts[m]++; counts[m + 1]--;
+				}
+				if (m > 0 && counts[m] > 0) {
+					counts[m]--; counts[m - 1]++;
+					patternRemove[pattern][m] = patternIndex[getMultiplicityCode(counts[1], counts[2], counts[3], counts[4])];
+					counts[m]++; counts[m - 1]--;
+				}
+			}
+		}
+		
+		// classify a representative hand for each hand key (mapped from a table file, if generated, and read in
+		// place; see TableFile)
+		keyClasses = TableFile.getTable("pokerhand-classes",
+				TableFile.getVersion(hands, PokerHand::getKeyClass, NUM_HAND_KEYS), NUM_HAND_KEYS,
+				PokerHand::buildKeyClasses);
+	}
+	
+	/**
+	 * Fill the given table with the classification (ordinal) of a representative hand of each hand key.
+	 * @param table table of NUM_HAND_KEYS bytes
+	 */
+	static void buildKeyClasses(ByteBuffer table) {
+		for (int key = 0; key < NUM_HAND_KEYS; key++)
+			table.put(key, (byte) getKeyClass(key));
+	}
+	
+	/**
+	 * Return the classification (ordinal) of a representative hand of the given hand key.
+	 */
+	private static int getKeyClass(int key) {
+		return classify(getKeyHand(key)).ordinal();
+	}
+	
+	/**
+	 * Return a multiplicity code for the given counts of singles, pairs, trips, and quads.
+	 * @param c1 number of ranks occurring once
+	 * @param c2 number of ranks occurring twice
+	 * @param c3 number of ranks occurring three times
+	 * @param c4 number of ranks occurring four times
+	 * @return multiplicity code
+	 */
+	private static int getMultiplicityCode(int c1, int c2, int c3, int c4) {
+		return ((c4 * 2 + c3) * 3 + c2) * 6 + c1;
+	}
+	
+	/**
+	 * Return counts of ranks by multiplicity (index 1 through 4) for the given multiplicity code.
+	 * @param code multiplicity code
+	 * @return counts of ranks by multiplicity
+	 */
+	private static int[] getMultiplicityCounts(int code) {
+		return new int[] {0, code % 6, code / 6 % 3, code / 18 % 2, code / 36};
+	}
+	
+	/**
+	 * Return a representative hand of MAX_KEY_CARDS positions (possibly with null values) for the given hand key.
+	 * Unreachable keys (e.g. more than MAX_KEY_CARDS distinct ranks) yield an empty hand.
+	 * @param key hand key
+	 * @return a representative hand for the given hand key
+	 */
+	public static Card[] getKeyHand(int key) {
+		Card[] hand = new Card[MAX_KEY_CARDS];
+		int i = 0;
+		if (key < 2 * NUM_RANK_MASKS) {
+			int rankMask = key % NUM_RANK_MASKS;
+			boolean sameSuit = key >= NUM_RANK_MASKS;
+			if (Integer.bitCount(rankMask) > MAX_KEY_CARDS)
+				return hand;
+			for (int rank = 0; rank < Card.NUM_RANKS; rank++)
+				if ((rankMask & (1 << rank)) != 0) {
+					hand[i] = Card.getCard((sameSuit ? 0 : i % 2) * Card.NUM_RANKS + rank);
+					i++;
+				}
+		}
+		else {
+			int[] counts = getMultiplicityCounts(patternCodes[key - 2 * NUM_RANK_MASKS]);
+			int rank = 0;
+			for (int m = 4; m >= 1; m--)
+				for (int j = 0; j < counts[m]; j++, rank++)
+					for (int suit = 0; suit < m; suit++)
+						hand[i++] = Card.getCard(suit * Card.NUM_RANKS + rank);
+		}
+		return hand;
+	}
+	
+	/**
+	 * Return the rank pattern index after adding a card to a hand, where the rank of the added card
+	 * has the given multiplicity in the hand before the addition.
+	 * @param pattern rank pattern index of the hand
+	 * @param multiplicity number of cards in the hand with the rank of the added card
+	 * @return the rank pattern index after the addition
+	 */
+	public static int addToPattern(int pattern, int multiplicity) {
+		return patternAdd[pattern][multiplicity];
+	}
+	
+	/**
+	 * Return the rank pattern index after removing a card from a hand, where the rank of the removed card
+	 * has the given multiplicity in the hand before the removal.
+	 * @param pattern rank pattern index of the hand
+	 * @param multiplicity number of cards in the hand with the rank of the removed card
+	 * @return the rank pattern index after the removal
+	 */
+	public static int removeFromPattern(int pattern, int multiplicity) {
+		return patternRemove[pattern][multiplicity];
+	}
+	
+	/**
+	 * Return the hand key of a hand with the given rank mask, rank pattern, and suit uniformity.
+	 * @param rankMask bit mask with bit r set for each rank r in the hand
+	 * @param pattern rank pattern index of the hand
+	 * @param sameSuit whether or not the hand is non-empty with all cards in one suit
+	 * @return the hand key
+	 */
+	public static int getHandKey(int rankMask, int pattern, boolean sameSuit) {
+		if (!patternDistinct[pattern])
+			return 2 * NUM_RANK_MASKS + pattern;
+		return sameSuit ? NUM_RANK_MASKS + rankMask : rankMask;
+	}
+	
+	/**
+	 * Given a Card array of at most MAX_KEY_CARDS non-null values, return its hand key.
+	 * @param hand - a Poker hand represented as an array of Card objects which may contain null values
+	 * @return the hand key of the given Poker hand
+	 */
+	public static int getHandKey(Card[] hand) {
+		int rankMask = 0;
+		int suitMask = 0;
+		int pattern = EMPTY_PATTERN;
+		long rankCounts = 0L; // 3-bit count fields indexed by rank
+		for (Card card : hand)
+			if (card != null) {
+				int shift = 3 * card.getRank();
+				pattern = patternAdd[pattern][(int) (rankCounts >>> shift) & 7];
+				rankCounts += 1L << shift;
+				rankMask |= 1 << card.getRank();
+				suitMask |= 1 << card.getSuit();
+			}
+		return getHandKey(rankMask, pattern, suitMask != 0 && (suitMask & (suitMask - 1)) == 0);
+	}
+	
+	/**
+	 * Return the classification of a hand of MAX_KEY_CARDS positions with the given hand key.
+	 * @param handKey hand key
+	 * @return classification of Poker hands with the given hand key
+	 */
+	public static PokerHand getPokerHand(int handKey) {
+		return hands[keyClasses.get(handKey)];
+	}
+	
 	/**
 	 * Given a Card array (possibly with null values) classifies the current Poker hand and returns the classification.
 	 * @param hand - a Poker hand represented as an array of Card objects which may contain null values
 	 * @return classification of the given Poker hand
 	 */
 	public static PokerHand getPokerHand(Card[] hand) {
+		if (hand.length == MAX_KEY_CARDS)
+			return getPokerHand(getHandKey(hand));
+		return classify(hand);
+	}
+	
+	/**
+	 * Given a card set of at most MAX_KEY_CARDS cards, classifies the current Poker hand (of MAX_KEY_CARDS positions)
+	 * with bit operations on the suit rank masks and returns the classification.  As with Card arrays, partial hands
+	 * may be pairs, two pairs, etc. but never flushes or straights.
+	 * @param hand - a Poker hand represented as a CardSet bit mask
+	 * @return classification of the given Poker hand
+	 */
+	public static PokerHand getPokerHand(long hand) {
+		int rankMask = CardSet.getRankMask(hand);
+		int pairMask = CardSet.getRankMask(hand, 2);
+		int tripMask = CardSet.getRankMask(hand, 3);
+		int quadMask = CardSet.getRankMask(hand, 4);
+		int numPairs = Integer.bitCount(pairMask) - Integer.bitCount(tripMask); // ranks occurring exactly twice
+		int numTrips = Integer.bitCount(tripMask) - Integer.bitCount(quadMask); // ranks occurring exactly three times
+		boolean isComplete = CardSet.size(hand) == MAX_KEY_CARDS;
+		boolean hasFlush = isComplete && CardSet.isSameSuit(hand);
+		int straightFlags = isComplete && pairMask == 0 ? CardSet.getStraightFlags(rankMask) : 0;
+		boolean hasStraight = (straightFlags & CardSet.STRAIGHT) != 0;
+		boolean hasRoyal = (straightFlags & CardSet.ROYAL) != 0;
+		
+		// Return score
+		if (hasFlush) {
+			if (hasRoyal)
+				return PokerHand.ROYAL_FLUSH; // Royal Flush
+			if (hasStraight)
+				return PokerHand.STRAIGHT_FLUSH; // Straight Flush
+		}
+		if (quadMask != 0)
+			return PokerHand.FOUR_OF_A_KIND; // Four of a Kind
+		if (numTrips == 1 && numPairs == 1)
+			return PokerHand.FULL_HOUSE; // Full House
+		if (hasFlush)
+			return PokerHand.FLUSH; // Flush
+		if (hasStraight)
+			return PokerHand.STRAIGHT; // Straight
+		if (tripMask != 0)
+			return PokerHand.THREE_OF_A_KIND; // Three of a Kind
+		if (numPairs == 2)
+			return PokerHand.TWO_PAIR; // Two Pair
+		if (numPairs == 1)
+			return PokerHand.ONE_PAIR; // One Pair
+		return PokerHand.HIGH_CARD; // Otherwise, High Card.  This applies to empty sets as well.
+	}
+	
+	/**
+	 * Given a Card array (possibly with null values) classifies the current Poker hand by counting ranks and suits.
+	 * This is the reference classification from which the hand key table is built.
+	 * @param hand - a Poker hand represented as an array of Card objects which may contain null values
+	 * @return classification of the given Poker hand
+	 */
+	private static PokerHand classify(Card[] hand) {
 		// Compute counts
 		int[] rankCounts = new int[Card.NUM_RANKS];
 		int[] suitCounts = new int[Card.NUM_SUITS];
@@ -100,4 +382,41 @@ public enum PokerHand {
 	public String toString() {
 		return name;
 	}
+	
+	/**
+	 * Check the hand key classification against the reference classification for all 5-card hands and 
+	 * all partial hands of fewer cards, printing the number of mismatches.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		Card[] deck = Card.getAllCards();
+		Card[] hand = new Card[MAX_KEY_CARDS];
+		long[] numHands = new long[MAX_KEY_CARDS + 1];
+		long[] numMismatches = new long[MAX_KEY_CARDS + 1];
+		int[] indices = new int[MAX_KEY_CARDS];
+		for (int numCards = 0; numCards <= MAX_KEY_CARDS; numCards++) {
+			for (int i = 0; i < numCards; i++)
+				indices[i] = i;
+			while (true) {
+				Arrays.fill(hand, null);
+				for (int i = 0; i < numCards; i++)
+					hand[i] = deck[indices[i]];
+				numHands[numCards]++;
+				if (getPokerHand(hand) != classify(hand)) {
+					if (numMismatches[numCards]++ == 0)
+						System.out.println("Mismatch: " + Arrays.toString(hand) + " " + getPokerHand(hand) + " != " + classify(hand));
+				}
+				// advance to the next combination of card indices
+				int i = numCards - 1;
+				while (i >= 0 && indices[i] == Card.NUM_CARDS - numCards + i)
+					i--;
+				if (i < 0)
+					break;
+				indices[i]++;
+				for (int j = i + 1; j < numCards; j++)
+					indices[j] = indices[j - 1] + 1;
+			}
+			System.out.printf("%d-card hands: %d, mismatches: %d\n", numCards, numHands[numCards], numMismatches[numCards]);
+		}
+	}
 }
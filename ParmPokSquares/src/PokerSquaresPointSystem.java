@@ -11,6 +11,7 @@ public class PokerSquaresPointSystem {
 	private static final int MIN_HAND_SCORE = -128; // maximum permissible hand score
 	private static final int SIZE = PokerSquares.SIZE; // Poker Squares number of rows/columns
 	private final int[] scores; // scores for each corresponding hand classification id number
+	private final int[] keyScores; // scores for each PokerHand hand key
 	
 	/**
 	 * Create a point system given an array of hand scores. The score at index n corresponds to the score for 
@@ -22,6 +23,9 @@ public class PokerSquaresPointSystem {
 		for (int i = 0; i < scores.length; i++)
 			scores[i] = Math.max(MIN_HAND_SCORE, Math.min(MAX_HAND_SCORE, scores[i]));
 		this.scores = scores;
+		keyScores = new int[PokerHand.NUM_HAND_KEYS];
+		for (int key = 0; key < PokerHand.NUM_HAND_KEYS; key++)
+			keyScores[key] = scores[PokerHand.getPokerHand(key).id];
 	}
 	
 	/**
@@ -33,6 +37,15 @@ public class PokerSquaresPointSystem {
 		return scores[PokerHand.getPokerHandId(hand)];
 	}
 	
+	/**
+	 * Get the score associated with the given PokerHand hand key.
+	 * @param handKey hand key of a hand of SIZE positions
+	 * @return score associated with the given hand key
+	 */
+	public int getKeyScore(int handKey) {
+		return keyScores[handKey];
+	}
+	
 	/**
 	 * Get the score associated with the given Poker hand classification.
 	 * @param pokerHand Poker hand classification
@@ -59,16 +72,50 @@ public class PokerSquaresPointSystem {
 		return scores.clone();
 	}
 	
+	/**
+	 * Return an array of scores indexed by PokerHand hand keys.
+	 * @return an array of scores indexed by PokerHand hand keys
+	 */
+	public int[] getKeyScoreTable() {
+		return keyScores.clone();
+	}
+	
+	/**
+	 * Get the hand key of a row or column of the given grid, optionally with an additional card.
+	 * @param grid 2D Card array representing play grid
+	 * @param line row index (0 through SIZE - 1) or SIZE plus column index
+	 * @param card additional card (or null for none), ignored if the line is full
+	 * @return hand key of the line with the additional card
+	 */
+	private static int getLineKey(Card[][] grid, int line, Card card) {
+		int rankMask = 0;
+		int suitMask = 0;
+		int pattern = PokerHand.EMPTY_PATTERN;
+		long rankCounts = 0L; // 3-bit count fields indexed by rank
+		int numCards = 0;
+		for (int i = 0; i <= SIZE; i++) {
+			Card c = (i < SIZE) ? ((line < SIZE) ? grid[line][i] : grid[i][line - SIZE]) : (numCards < SIZE) ? card : null;
+			if (c != null) {
+				numCards++;
+				int shift = 3 * c.getRank();
+				pattern = PokerHand.addToPattern(pattern, (int) (rankCounts >>> shift) & 7);
+				rankCounts += 1L << shift;
+				rankMask |= 1 << c.getRank();
+				suitMask |= 1 << c.getSuit();
+			}
+		}
+		return PokerHand.getHandKey(rankMask, pattern, suitMask != 0 && (suitMask & (suitMask - 1)) == 0);
+	}
+	
 	/**
 	 * Get the score of the given Card grid.
 	 * @param grid Card grid
 	 * @return score of given Card grid
 	 */
 	public int getScore(Card[][] grid) {
-		int[] handScores = getHandScores(grid);
 		int totalScore = 0;
-		for (int handScore : handScores)
-			totalScore += handScore;
+		for (int line = 0; line < 2 * SIZE; line++)
+			totalScore += keyScores[getLineKey(grid, line, null)];
 		return totalScore;
 	}
 	
@@ -79,19 +126,45 @@ public class PokerSquaresPointSystem {
 	 */
 	public int[] getHandScores(Card[][] grid) {
 		int[] handScores = new int[2 * SIZE];
-		for (int row = 0; row < SIZE; row++) {
-			Card[] hand = new Card[SIZE];
-			for (int col = 0; col < SIZE; col++)
-				hand[col] = grid[row][col];
-			handScores[row] = getHandScore(hand);
-		}
+		for (int line = 0; line < 2 * SIZE; line++)
+			handScores[line] = keyScores[getLineKey(grid, line, null)];
+		return handScores;
+	}
+	
+	/**
+	 * Get the change in score of the given partially filled grid from placing the given card at an empty position.
+	 * Only the row and column of the placement are scored. 
+	 * @param grid 2D Card array representing play grid
+	 * @param card card to place
+	 * @param row row of the empty position
+	 * @param col column of the empty position
+	 * @return grid score after the placement minus grid score before the placement
+	 */
+	public int getScoreDelta(Card[][] grid, Card card, int row, int col) {
+		return keyScores[getLineKey(grid, row, card)] - keyScores[getLineKey(grid, row, null)]
+				+ keyScores[getLineKey(grid, SIZE + col, card)] - keyScores[getLineKey(grid, SIZE + col, null)];
+	}
+	
+	/**
+	 * Get the change in score of the given partially filled grid from placing the given card at each empty position.
+	 * Each line is scored with and without the card once, so that all placements are evaluated with 20 line 
+	 * evaluations and no allocation.
+	 * @param grid 2D Card array representing play grid
+	 * @param card card to place
+	 * @param deltas array of at least SIZE * SIZE score changes indexed by row-major position 
+	 * (row * SIZE + col), to be filled by this method.  Occupied positions are given Integer.MIN_VALUE.
+	 */
+	public void getScoreDeltas(Card[][] grid, Card card, int[] deltas) {
 		for (int col = 0; col < SIZE; col++) {
-			Card[] hand = new Card[SIZE];
+			int colDelta = keyScores[getLineKey(grid, SIZE + col, card)] - keyScores[getLineKey(grid, SIZE + col, null)];
 			for (int row = 0; row < SIZE; row++)
-				hand[row] = grid[row][col];
-			handScores[SIZE + col] = getHandScore(hand);
+				deltas[row * SIZE + col] = colDelta;
+		}
+		for (int row = 0; row < SIZE; row++) {
+			int rowDelta = keyScores[getLineKey(grid, row, card)] - keyScores[getLineKey(grid, row, null)];
+			for (int col = 0; col < SIZE; col++)
+				deltas[row * SIZE + col] = (grid[row][col] == null) ? deltas[row * SIZE + col] + rowDelta : Integer.MIN_VALUE;
 		}
-		return handScores;
 	}
 	
 	/**
@@ -0,0 +1,216 @@
+/**
+ * RolloutBandit - Adaptive allocation of Monte Carlo rollouts among candidate
+ * plays by sequential elimination. Candidates ("arms") are sampled in rotation
+ * while running means and confidence bounds (mean plus or minus z standard
+ * errors) are kept for each. After each rotation, once every active arm has
+ * at least the minimum number of rollouts, any arm whose upper bound falls
+ * below the greatest lower bound is eliminated, so that later rollouts go
+ * only to the candidates still competing for the best play.
+ *
+ * With an infinite z, no arm is ever eliminated and rollouts are allocated
+ * uniformly.
+ */
+public class RolloutBandit {
+
+    private final double z; // confidence bound half-width in standard errors
+    private final int minRollouts; // minimum rollouts of each arm before elimination
+    private int numArms; // number of arms
+    private int[] counts; // rollouts, per arm
+    private double[] sums; // rollout score totals, per arm
+    private double[] sumSquares; // rollout squared score totals, per arm
+    private boolean[] active; // whether or not each arm is still being sampled
+    private int numActive; // number of active arms
+    private int next; // next arm of the rotation
+
+    /**
+     * Create a bandit over at most the given number of arms.
+     *
+     * @param maxArms maximum number of arms
+     * @param z confidence bound half-width in standard errors
+     * @param minRollouts minimum rollouts of each arm before elimination
+     */
+    public RolloutBandit(int maxArms, double z, int minRollouts) {
+        this.z = z;
+        this.minRollouts = Math.max(2, minRollouts);
+        counts = new int[maxArms];
+        sums = new double[maxArms];
+        sumSquares = new double[maxArms];
+        active = new boolean[maxArms];
+    }
+
+    /**
+     * Start a new allocation with the given number of arms, all active.
+     *
+     * @param numArms number of arms
+     */
+    public void reset(int numArms) {
+        this.numArms = numArms;
+        for (int arm = 0; arm < numArms; arm++) {
+            counts[arm] = 0;
+            sums[arm] = 0;
+            sumSquares[arm] = 0;
+            active[arm] = true;
+        }
+        numActive = numArms;
+        next = 0;
+    }
+
+    /**
+     * Return the next active arm to sample, in rotation. Eliminations are
+     * made as each rotation completes.
+     *
+     * @return the next arm to sample
+     */
+    public int nextArm() {
+        while (true) {
+            if (next == numArms) {
+                next = 0;
+                eliminate();
+            }
+            if (active[next]) {
+                return next++;
+            }
+            next++;
+        }
+    }
+
+    /**
+     * Record the score of a rollout of the given arm.
+     *
+     * @param arm arm sampled
+     * @param score rollout score
+     */
+    public void update(int arm, int score) {
+        counts[arm]++;
+        sums[arm] += score;
+        sumSquares[arm] += (double) score * score;
+    }
+
+    private void eliminate() {
+        double maxLowerBound = Double.NEGATIVE_INFINITY;
+        for (int arm = 0; arm < numArms; arm++) {
+            if (active[arm]) {
+                if (counts[arm] < minRollouts) {
+                    return;
+                }
+                maxLowerBound = Math.max(maxLowerBound, getMean(arm) - getRadius(arm));
+            }
+        }
+        for (int arm = 0; arm < numArms; arm++) {
+            if (active[arm] && getMean(arm) + getRadius(arm) < maxLowerBound) {
+                active[arm] = false;
+                numActive--;
+            }
+        }
+    }
+
+    /**
+     * Return whether or not a single arm remains active, so that further
+     * rollouts cannot change the choice of best arm.
+     *
+     * @return whether or not a single arm remains active
+     */
+    public boolean isDone() {
+        return numActive <= 1;
+    }
+
+    /**
+     * Return whether or not the given arm is still being sampled.
+     *
+     * @param arm arm
+     * @return whether or not the given arm is active
+     */
+    public boolean isActive(int arm) {
+        return active[arm];
+    }
+
+    /**
+     * Return the number of rollouts of the given arm.
+     *
+     * @param arm arm
+     * @return the number of rollouts of the given arm
+     */
+    public int getCount(int arm) {
+        return counts[arm];
+    }
+
+    /**
+     * Return the mean rollout score of the given arm.
+     *
+     * @param arm arm
+     * @return the mean rollout score (NaN if not yet sampled)
+     */
+    public double getMean(int arm) {
+        return sums[arm] / counts[arm];
+    }
+
+    /**
+     * Return the standard error of the mean rollout score of the given arm.
+     *
+     * @param arm arm
+     * @return the standard error of the mean (infinite with fewer than two
+     * rollouts)
+     */
+    public double getStandardError(int arm) {
+        int n = counts[arm];
+        if (n < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = sums[arm] / n;
+        double variance = Math.max(0, (sumSquares[arm] - n * mean * mean) / (n - 1));
+        return Math.sqrt(variance / n);
+    }
+
+    /**
+     * Return the half-width of the confidence bounds of the given arm.
+     */
+    private double getRadius(int arm) {
+        return z * getStandardError(arm);
+    }
+
+    /**
+     * Compare uniform and adaptive allocation of the same time budget to the
+     * candidate plays of a mid-game decision, reporting the rollouts, mean and
+     * standard error of each candidate.
+     *
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        PokerSquaresPointSystem system = PokerSquaresPointSystem.getAmericanPointSystem();
+        OurPlayer player = new OurPlayer(25, 0);
+        player.setPointSystem(system, 0);
+        player.init();
+        Card[] deck = Card.getAllCards();
+        java.util.Random random = new java.util.Random(0);
+        for (int i = deck.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Card tmp = deck[i];
+            deck[i] = deck[j];
+            deck[j] = tmp;
+        }
+        int numPlays = 10;
+        for (int i = 0; i < numPlays; i++) { // reach a mid-game decision with quick plays
+            player.getPlay(deck[i], 2000);
+        }
+        system.printGrid(player.grid);
+        System.out.println("Card to play: " + deck[numPlays]);
+        int numCandidates = PokerSquares.SIZE * PokerSquares.SIZE - numPlays;
+        System.arraycopy(player.plays, numPlays, player.legalPlayLists[numPlays], 0, numCandidates);
+        long nanosPerMoveEval = TimeBudget.millisToNanos(200);
+        RolloutBandit[] bandits = {new RolloutBandit(numCandidates, Double.POSITIVE_INFINITY, 0),
+            new RolloutBandit(numCandidates, 3.0, 30)};
+        for (RolloutBandit bandit : bandits) {
+            player.setRolloutBandit(bandit);
+            player.dealCard(deck[numPlays]);
+            player.evaluatePlays(deck[numPlays], player.legalPlayLists[numPlays], numCandidates, nanosPerMoveEval,
+                    player.playAverages);
+            System.out.println(bandit.z == Double.POSITIVE_INFINITY ? "\nUniform allocation:" : "\nAdaptive allocation:");
+            System.out.println("  play  rollouts     mean  std.err.");
+            for (int i = 0; i < numCandidates; i++) {
+                int play = player.legalPlayLists[numPlays][i];
+                System.out.printf("(%d, %d)  %8d  %7.3f  %8.3f%s\n", play / PokerSquares.SIZE, play % PokerSquares.SIZE,
+                        bandit.getCount(i), bandit.getMean(i), bandit.getStandardError(i), bandit.isActive(i) ? " *" : "");
+            }
+        }
+    }
+}
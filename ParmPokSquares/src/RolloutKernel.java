@@ -0,0 +1,330 @@
+import java.util.SplittableRandom;
+
+/**
+ * RolloutKernel - Greedy Monte Carlo rollouts advanced in lockstep over a
+ * batch. All rollouts of a batch start from the same loaded state, so at each
+ * step every rollout places its next card on the same ply, and the step is a
+ * single loop over the batch. The per-rollout decks, empty positions and
+ * line states (as in GridLines: rank counts, suit counts, rank masks, rank
+ * patterns, sizes and hand keys) are held struct-of-arrays style in flat
+ * primitive arrays indexed by rollout, so a step streams through contiguous
+ * memory with no object references.
+ *
+ * The value of the lines after each ply is given by a table indexed by hand
+ * key for that ply (e.g. HandValues turn buckets, then point system scores on
+ * the last ply). Each rollout draws and places cards exactly as a sequential
+ * greedy rollout does (see OurPlayer.simGreedyPlay): the card is drawn
+ * uniformly from the undealt cards, and the play is the greatest change in
+ * table value with ties broken uniformly.
+ *
+ * Instances are not thread safe; use one per player or thread.
+ */
+public class RolloutKernel {
+
+    private static final int SIZE = PokerSquares.SIZE; // number of rows/columns in square grid
+    private static final int NUM_POS = SIZE * SIZE; // number of positions in square grid
+    private static final int NUM_LINES = 2 * SIZE; // number of rows and columns
+    private static final int NUM_CARDS = Card.NUM_CARDS; // number of cards in deck
+    private final int batchSize; // maximum number of rollouts per batch
+    private final int base; // slot of the loaded state (after the batch slots)
+    private int[][] plyTables; // line values indexed by hand key, per ply (number of cards played before the play)
+    private int numPlays; // number of cards played in the loaded state
+    // per-slot state: slot s holds deck cards at s * NUM_CARDS, empty positions at s * NUM_POS, and lines at s * NUM_LINES
+    private int[] decks; // card ids, undealt from index numPlays onward
+    private int[] empties; // row-major positions, empty from index numPlays onward
+    private long[] rankCounts; // 3-bit rank count fields indexed by rank, per line
+    private int[] suitCounts; // suit counts, per line (4 per line)
+    private int[] rankMasks; // masks of ranks present, per line
+    private int[] patterns; // rank pattern indices, per line
+    private int[] sizes; // numbers of cards, per line
+    private int[] keys; // hand keys, per line
+    private int[] scores; // scores of the rollouts of the last batch
+    private int[] lineDeltas = new int[NUM_LINES]; // changes in line value from adding the current card, per line
+
+    /**
+     * Create a kernel running batches of at most the given number of
+     * rollouts.
+     *
+     * @param batchSize maximum number of rollouts per batch
+     */
+    public RolloutKernel(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        base = this.batchSize;
+        int numSlots = this.batchSize + 1;
+        decks = new int[numSlots * NUM_CARDS];
+        empties = new int[numSlots * NUM_POS];
+        rankCounts = new long[numSlots * NUM_LINES];
+        suitCounts = new int[numSlots * NUM_LINES * Card.NUM_SUITS];
+        rankMasks = new int[numSlots * NUM_LINES];
+        patterns = new int[numSlots * NUM_LINES];
+        sizes = new int[numSlots * NUM_LINES];
+        keys = new int[numSlots * NUM_LINES];
+        scores = new int[this.batchSize];
+    }
+
+    /**
+     * Return the maximum number of rollouts per batch.
+     *
+     * @return the maximum number of rollouts per batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the line value tables used to choose each greedy play and to score
+     * the final grid of each rollout.
+     *
+     * @param plyTables values indexed by PokerHand hand key, for each ply
+     * (indexed by the number of cards played before the play)
+     */
+    public void setPlyTables(int[][] plyTables) {
+        this.plyTables = plyTables;
+    }
+
+    /**
+     * Load the state from which rollouts start.
+     *
+     * @param grid 2D Card array representing play grid (with null values for
+     * empty positions)
+     * @param numPlays number of cards in the grid
+     * @param simDeck all cards, the undealt ones from index numPlays onward
+     * @param plays all row-major positions, the empty ones from index
+     * numPlays onward
+     */
+    public void load(Card[][] grid, int numPlays, Card[] simDeck, int[] plays) {
+        this.numPlays = numPlays;
+        int deck = base * NUM_CARDS;
+        for (int i = 0; i < NUM_CARDS; i++) {
+            decks[deck + i] = simDeck[i].getCardId();
+        }
+        System.arraycopy(plays, 0, empties, base * NUM_POS, NUM_POS);
+        int lines = base * NUM_LINES;
+        for (int line = lines; line < lines + NUM_LINES; line++) {
+            rankCounts[line] = 0L;
+            rankMasks[line] = 0;
+            patterns[line] = PokerHand.EMPTY_PATTERN;
+            sizes[line] = 0;
+            keys[line] = PokerHand.getHandKey(0, PokerHand.EMPTY_PATTERN, false);
+            for (int suit = 0; suit < Card.NUM_SUITS; suit++) {
+                suitCounts[line * Card.NUM_SUITS + suit] = 0;
+            }
+        }
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                Card card = grid[row][col];
+                if (card != null) {
+                    addToLine(lines + row, card.getRank(), card.getSuit());
+                    addToLine(lines + SIZE + col, card.getRank(), card.getSuit());
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a batch of greedy rollouts from the loaded state, each to the given
+     * depth limit or game end, whichever comes first.
+     *
+     * @param numRollouts number of rollouts (at most the batch size)
+     * @param depthLimit number of greedy plays of each rollout
+     * @param random pseudorandom number generator for card draws and ties
+     * @return the total score of the rollouts (each also available from
+     * getScore(int))
+     */
+    public long run(int numRollouts, int depthLimit, SplittableRandom random) {
+        int depth = Math.min(depthLimit, NUM_POS - numPlays);
+        // copy the loaded state into each rollout slot
+        for (int r = 0; r < numRollouts; r++) {
+            System.arraycopy(decks, base * NUM_CARDS, decks, r * NUM_CARDS, NUM_CARDS);
+            System.arraycopy(empties, base * NUM_POS, empties, r * NUM_POS, NUM_POS);
+            System.arraycopy(rankCounts, base * NUM_LINES, rankCounts, r * NUM_LINES, NUM_LINES);
+            System.arraycopy(suitCounts, base * NUM_LINES * Card.NUM_SUITS, suitCounts, r * NUM_LINES * Card.NUM_SUITS,
+                    NUM_LINES * Card.NUM_SUITS);
+            System.arraycopy(rankMasks, base * NUM_LINES, rankMasks, r * NUM_LINES, NUM_LINES);
+            System.arraycopy(patterns, base * NUM_LINES, patterns, r * NUM_LINES, NUM_LINES);
+            System.arraycopy(sizes, base * NUM_LINES, sizes, r * NUM_LINES, NUM_LINES);
+            System.arraycopy(keys, base * NUM_LINES, keys, r * NUM_LINES, NUM_LINES);
+        }
+        // advance all rollouts one ply at a time
+        for (int ply = numPlays; ply < numPlays + depth; ply++) {
+            int[] table = plyTables[ply];
+            for (int r = 0; r < numRollouts; r++) {
+                step(r, ply, table, random);
+            }
+        }
+        // score the final lines with the table of the last ply (0 before the first play, as in simGreedyPlay)
+        int lastPly = numPlays + depth - 1;
+        long total = 0;
+        for (int r = 0; r < numRollouts; r++) {
+            int score = 0;
+            if (lastPly >= 0) {
+                int[] table = plyTables[lastPly];
+                for (int line = r * NUM_LINES; line < (r + 1) * NUM_LINES; line++) {
+                    score += table[keys[line]];
+                }
+            }
+            scores[r] = score;
+            total += score;
+        }
+        return total;
+    }
+
+    /**
+     * Draw a card for the given rollout and make the greedy play of it.
+     */
+    private void step(int r, int ply, int[] table, SplittableRandom random) {
+        // draw a card, swapping it to the front of the undealt cards
+        int deck = r * NUM_CARDS;
+        int c = deck + ply + random.nextInt(NUM_CARDS - ply);
+        int cardId = decks[c];
+        decks[c] = decks[deck + ply];
+        decks[deck + ply] = cardId;
+        int rank = cardId % Card.NUM_RANKS, suit = cardId / Card.NUM_RANKS;
+        // only the row and column of a play change value (full lines take no further card)
+        int lines = r * NUM_LINES;
+        for (int line = 0; line < NUM_LINES; line++) {
+            lineDeltas[line] = sizes[lines + line] == SIZE ? 0
+                    : table[getKeyWith(lines + line, rank, suit)] - table[keys[lines + line]];
+        }
+        int empty = r * NUM_POS;
+        int maxDelta = Integer.MIN_VALUE;
+        int bestIndex = -1;
+        int numBestPlays = 0; // number of plays yielding maxDelta so far (for reservoir sampling of ties)
+        for (int i = empty + ply; i < empty + NUM_POS; i++) {
+            int play = empties[i];
+            int delta = lineDeltas[play / SIZE] + lineDeltas[SIZE + play % SIZE];
+            if (delta > maxDelta) {
+                maxDelta = delta;
+                bestIndex = i;
+                numBestPlays = 1;
+            } else if (delta == maxDelta && random.nextInt(++numBestPlays) == 0) {
+                bestIndex = i; // each of the k tied plays so far is kept with probability 1/k
+            }
+        }
+        // swap the play to the front of the empty positions and place the card
+        int play = empties[bestIndex];
+        empties[bestIndex] = empties[empty + ply];
+        empties[empty + ply] = play;
+        addToLine(lines + play / SIZE, rank, suit);
+        addToLine(lines + SIZE + play % SIZE, rank, suit);
+    }
+
+    private int getKeyWith(int line, int rank, int suit) {
+        int multiplicity = (int) (rankCounts[line] >>> (3 * rank)) & 7;
+        int pattern = PokerHand.addToPattern(patterns[line], multiplicity);
+        boolean sameSuit = suitCounts[line * Card.NUM_SUITS + suit] == sizes[line];
+        return PokerHand.getHandKey(rankMasks[line] | (1 << rank), pattern, sameSuit);
+    }
+
+    private void addToLine(int line, int rank, int suit) {
+        keys[line] = getKeyWith(line, rank, suit);
+        int shift = 3 * rank;
+        patterns[line] = PokerHand.addToPattern(patterns[line], (int) (rankCounts[line] >>> shift) & 7);
+        rankCounts[line] += 1L << shift;
+        rankMasks[line] |= 1 << rank;
+        suitCounts[line * Card.NUM_SUITS + suit]++;
+        sizes[line]++;
+    }
+
+    /**
+     * Return the score of a rollout of the last batch.
+     *
+     * @param rollout rollout index within the batch
+     * @return the score of the rollout
+     */
+    public int getScore(int rollout) {
+        return scores[rollout];
+    }
+
+    /**
+     * Return the card drawn by the first play of a rollout of the last batch.
+     *
+     * @param rollout rollout index within the batch
+     * @return the card id of the first card drawn (undefined if the batch
+     * made no plays)
+     */
+    public int getFirstCardId(int rollout) {
+        return decks[rollout * NUM_CARDS + numPlays];
+    }
+
+    /**
+     * Return the position of the first play of a rollout of the last batch.
+     *
+     * @param rollout rollout index within the batch
+     * @return the row-major position of the first play (undefined if the
+     * batch made no plays)
+     */
+    public int getFirstPlay(int rollout) {
+        return empties[rollout * NUM_POS + numPlays];
+    }
+
+    /**
+     * Check that single-rollout batches reproduce OurPlayer.simGreedyPlay
+     * exactly from the same pseudorandom streams, to game end and with zero
+     * depth (including before the first play), then compare rollouts per
+     * second and mean scores of sequential and batched rollouts from an
+     * opening and a mid-game state.
+     *
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        PokerSquaresPointSystem system = PokerSquaresPointSystem.getAmericanPointSystem();
+        Card[] deck = Card.getAllCards();
+        java.util.Random shuffler = new java.util.Random(0);
+        for (int i = deck.length - 1; i > 0; i--) {
+            int j = shuffler.nextInt(i + 1);
+            Card tmp = deck[i];
+            deck[i] = deck[j];
+            deck[j] = tmp;
+        }
+        for (int numPlays : new int[] {0, 1, 12}) {
+            OurPlayer player = new OurPlayer(NUM_POS, 0);
+            player.setPointSystem(system, 0);
+            player.init();
+            for (int i = 0; i < numPlays; i++) {
+                player.getPlay(deck[i], 1000);
+            }
+            RolloutKernel single = new RolloutKernel(1);
+            single.setPlyTables(player.plyTables);
+            for (int depthLimit : new int[] {0, NUM_POS}) { // (zero depth scores the current lines without a play)
+                int numMismatches = 0;
+                for (int seed = 0; seed < 10000; seed++) {
+                    single.load(player.grid, player.numPlays, player.simDeck, player.plays);
+                    single.run(1, depthLimit, new SplittableRandom(seed));
+                    player.random = new SplittableRandom(seed);
+                    if (single.getScore(0) != player.simGreedyPlay(depthLimit)) {
+                        numMismatches++;
+                    }
+                }
+                System.out.println("After " + numPlays + " plays, depth limit " + depthLimit + ", mismatches: "
+                        + numMismatches);
+            }
+            if (numPlays == 0) { // (timed from the opening and mid-game states only)
+                continue;
+            }
+            RolloutKernel kernel = new RolloutKernel(32);
+            kernel.setPlyTables(player.plyTables);
+            SplittableRandom random = new SplittableRandom(0);
+            for (int round = 0; round < 3; round++) {
+                for (int mode = 0; mode < 2; mode++) {
+                    long scoreTotal = 0;
+                    int numRollouts = 0;
+                    long start = System.nanoTime();
+                    while (System.nanoTime() - start < 1000000000L) {
+                        if (mode == 0) {
+                            scoreTotal += player.simGreedyPlay(NUM_POS);
+                            numRollouts++;
+                        } else {
+                            kernel.load(player.grid, player.numPlays, player.simDeck, player.plays);
+                            scoreTotal += kernel.run(kernel.getBatchSize(), NUM_POS, random);
+                            numRollouts += kernel.getBatchSize();
+                        }
+                    }
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%-10s rollouts/sec: %8.0f (mean score %.2f)\n", mode == 0 ? "sequential" : "batched",
+                            numRollouts / seconds, (double) scoreTotal / numRollouts);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ * TableFile - Binary files of precomputed tables (e.g. classifications of
+ * every hand key), generated once and then mapped read-only by every process
+ * that needs them, so that their pages are shared through the operating
+ * system page cache and loading costs little more than a checksum.
+ *
+ * Tables are files named by table in the directory given by the system
+ * property "pokersquares.tables". A file starts with a 24-byte big-endian
+ * header: magic number, format version, table version, payload length and
+ * CRC-32 of the payload (as a long), followed by the payload. A file that is
+ * missing, of another version or length, or corrupt is rebuilt from the
+ * table's builder and written (to a temporary file, then renamed, so that
+ * processes never map a partial file). Without the property, tables are
+ * built on the heap as before.
+ */
+public class TableFile {
+
+    /**
+     * the system property naming the table directory
+     */
+    public static final String DIRECTORY_PROPERTY = "pokersquares.tables";
+    private static final int MAGIC = 0x50535154; // "PSQT"
+    private static final int FORMAT_VERSION = 1; // header format version
+    private static final int HEADER_BYTES = 24; // magic, format version, table version, length (ints) and CRC-32 (long)
+    private static final int NUM_VERSION_SAMPLES = 256; // keys classified to derive a table version
+
+    private TableFile() {
+    }
+
+    /**
+     * Return the given table, mapped read-only from its file in the table
+     * directory if it is valid, else built by the given builder (and written
+     * to the table directory, if set).
+     *
+     * @param name table name (the file name without extension)
+     * @param version table version (changed whenever the builder changes)
+     * @param numBytes table length in bytes
+     * @param builder fills a zeroed buffer of numBytes bytes with the table
+     * @return the table (read-only, positioned at 0)
+     */
+    public static ByteBuffer getTable(String name, int version, int numBytes, Consumer<ByteBuffer> builder) {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null) {
+            return build(numBytes, builder);
+        }
+        File file = new File(directory, name + ".tbl");
+        ByteBuffer table = map(file, version, numBytes);
+        if (table == null) {
+            table = build(numBytes, builder);
+            write(file, version, table);
+        }
+        return table;
+    }
+
+    /**
+     * Return a version of a table of enum ordinals indexed by key, derived
+     * from the names of the enum constants (in ordinal order) and the classes
+     * the given classifier assigns to an evenly spaced sample of the keys. A
+     * table file is thus rebuilt when the enum is reordered or renamed, or
+     * the classifier changes on any sampled key, with no version constant to
+     * remember to change.
+     *
+     * @param constants enum constants in ordinal order (values())
+     * @param classifier class ordinal of each key
+     * @param numKeys number of keys
+     * @return the table version
+     */
+    public static int getVersion(Enum<?>[] constants, IntUnaryOperator classifier, int numKeys) {
+        CRC32 crc = new CRC32();
+        for (Enum<?> constant : constants) {
+            crc.update(constant.name().getBytes(StandardCharsets.UTF_8));
+            crc.update(0); // (separates the names)
+        }
+        int numSamples = Math.min(NUM_VERSION_SAMPLES, numKeys);
+        for (int i = 0; i < numSamples; i++) {
+            crc.update(classifier.applyAsInt((int) ((long) i * numKeys / numSamples)));
+        }
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer build(int numBytes, Consumer<ByteBuffer> builder) {
+        ByteBuffer table = ByteBuffer.allocate(numBytes);
+        builder.accept(table);
+        table.clear();
+        return table.asReadOnlyBuffer();
+    }
+
+    private static long getChecksum(ByteBuffer table) {
+        CRC32 crc = new CRC32();
+        crc.update(table.duplicate());
+        return crc.getValue();
+    }
+
+    /**
+     * Map the payload of the given table file read-only.
+     *
+     * @param file table file
+     * @param version expected table version
+     * @param numBytes expected payload length in bytes
+     * @return the payload, or null if the file is missing or invalid
+     */
+    public static ByteBuffer map(File file, int version, int numBytes) {
+        if (!file.isFile() || file.length() != HEADER_BYTES + (long) numBytes) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+            // (the mapping stays valid after the channel is closed)
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES + (long) numBytes);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION || mapped.getInt(8) != version
+                    || mapped.getInt(12) != numBytes) {
+                return null;
+            }
+            long checksum = mapped.getLong(16);
+            mapped.position(HEADER_BYTES);
+            ByteBuffer table = mapped.slice();
+            return getChecksum(table) == checksum ? table : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the given table to the given file.
+     *
+     * @param file table file
+     * @param version table version
+     * @param table table (from position 0 to its limit)
+     * @return whether or not the file was written (if not, no temporary file
+     * is left in its directory)
+     */
+    public static boolean write(File file, int version, ByteBuffer table) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(version).putInt(table.limit()).putLong(getChecksum(table));
+        header.flip();
+        File temp = null;
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            Files.createDirectories(directory.toPath());
+            temp = File.createTempFile(file.getName(), ".tmp", directory);
+            try (RandomAccessFile out = new RandomAccessFile(temp, "rw"); FileChannel channel = out.getChannel()) {
+                ByteBuffer payload = table.duplicate();
+                payload.clear();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                while (payload.hasRemaining()) {
+                    channel.write(payload);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            if (temp != null) { // (a failed write or rename leaves no partial file behind)
+                temp.delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Time building, writing and mapping the partial hand class table of
+     * every hand key, check that the mapped table equals the built one, then
+     * corrupt a payload byte and check that the file is rejected and rebuilt.
+     * Finally, check that a write that fails leaves no temporary file.
+     *
+     * @param args (not used)
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory("tables").toFile();
+        System.setProperty(DIRECTORY_PROPERTY, directory.getPath());
+        int numBytes = PokerHand.NUM_HAND_KEYS;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            ByteBuffer built = build(numBytes, OurPokerHand::buildKeyClasses);
+            long buildNanos = System.nanoTime() - start;
+            File file = new File(directory, "ourpokerhand-classes.tbl");
+            file.delete();
+            start = System.nanoTime();
+            getTable("ourpokerhand-classes", 1, numBytes, OurPokerHand::buildKeyClasses); // builds and writes
+            long writeNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            ByteBuffer mapped = getTable("ourpokerhand-classes", 1, numBytes, OurPokerHand::buildKeyClasses); // maps
+            long mapNanos = System.nanoTime() - start;
+            System.out.printf("build %.3f ms, build and write %.3f ms, map %.3f ms (%s), equal: %b\n", buildNanos / 1e6,
+                    writeNanos / 1e6, mapNanos / 1e6, mapped.isDirect() ? "mapped" : "built", mapped.equals(built));
+        }
+        File file = new File(directory, "ourpokerhand-classes.tbl");
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(HEADER_BYTES + 100);
+            int b = out.readByte();
+            out.seek(HEADER_BYTES + 100);
+            out.writeByte(b ^ 1);
+        }
+        System.out.println("corrupt file mapped: " + (map(file, 1, numBytes) != null)
+                + ", other version mapped: " + (map(file, 2, numBytes) != null));
+        ByteBuffer rebuilt = getTable("ourpokerhand-classes", 1, numBytes, OurPokerHand::buildKeyClasses);
+        System.out.println("rebuilt, then mapped: " + (map(file, 1, numBytes) != null) + ", equal: "
+                + rebuilt.equals(build(numBytes, OurPokerHand::buildKeyClasses)));
+        // a table path taken by a nonempty directory: the rename fails
+        File blocked = new File(directory, "blocked.tbl");
+        File blocker = new File(blocked, "file");
+        blocked.mkdir();
+        blocker.createNewFile();
+        boolean written = write(blocked, 1, rebuilt);
+        System.out.println("blocked write: " + written + ", temporary files left: "
+                + directory.list((dir, name) -> name.endsWith(".tmp")).length);
+        blocker.delete();
+        for (File table : directory.listFiles()) {
+            table.delete();
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * TimeBudget - Nanosecond-precision time budget with amortized deadline
+ * checks. A budget is started with a duration (e.g. the time of a move) and
+ * may be divided into slices (e.g. one per candidate play), each given an
+ * equal share of the time then remaining, so that time a slice leaves unused
+ * passes to the later slices and time it overruns is taken from them.
+ *
+ * Work loops call tick(units) before each step of work. The clock is read
+ * only once every K units, where K is recomputed at each reading from the
+ * measured cost per unit so that readings are about 0.1 ms of work apart,
+ * and at most half the time then remaining, so the deadline is overrun by
+ * little more than the cost of one step.
+ *
+ * Instances are not thread safe; give each thread its own budget (see
+ * setDeadline(long) for sharing a deadline).
+ */
+public class TimeBudget {
+
+    private static final long NANOS_PER_MILLI = 1000000L; // nanoseconds per millisecond
+    private static final long DEFAULT_CHECK_NANOS = 100000L; // default work between clock readings
+    private final long checkNanos; // work between clock readings
+    private long start; // System.nanoTime() at the start of the budget
+    private long deadline; // System.nanoTime() at the end of the budget
+    private long sliceDeadline; // System.nanoTime() at the end of the current slice
+    private long lastCheck; // System.nanoTime() at the last clock reading
+    private long unitsDone; // units of work done since the last clock reading
+    private int pendingUnits; // units of work counted by the last tick, done by the next
+    private long checkInterval; // units of work between clock readings (K), 0 to read at the next tick
+    private double nanosPerUnit; // measured cost per unit of work (0 until measured)
+    private long numChecks; // number of clock readings
+
+    /**
+     * Create a budget reading the clock about every 0.1 ms of work.
+     */
+    public TimeBudget() {
+        this(DEFAULT_CHECK_NANOS);
+    }
+
+    /**
+     * Create a budget reading the clock about every given number of
+     * nanoseconds of work.
+     *
+     * @param checkNanos nanoseconds of work between clock readings
+     */
+    public TimeBudget(long checkNanos) {
+        this.checkNanos = Math.max(1, checkNanos);
+    }
+
+    /**
+     * Return the given number of milliseconds in nanoseconds.
+     *
+     * @param millis milliseconds
+     * @return nanoseconds
+     */
+    public static long millisToNanos(long millis) {
+        return millis * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Start a budget of the given duration from now, as a single slice.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void start(long nanos) {
+        setDeadline(System.nanoTime() + Math.max(0, nanos));
+    }
+
+    /**
+     * Start a budget from now to the given deadline, as a single slice (e.g.
+     * to share the deadline of another thread's budget).
+     *
+     * @param deadline System.nanoTime() at the end of the budget
+     */
+    public void setDeadline(long deadline) {
+        start = System.nanoTime();
+        this.deadline = deadline;
+        startSlice(1);
+    }
+
+    /**
+     * Start the next slice of the budget, with an equal share of the time
+     * remaining among it and the slices that follow.
+     *
+     * @param numSlices number of slices remaining, including this one
+     */
+    public void startSlice(int numSlices) {
+        long now = System.nanoTime();
+        sliceDeadline = now + Math.max(0, deadline - now) / Math.max(1, numSlices);
+        unitsDone = 0;
+        pendingUnits = 0;
+        checkInterval = 0; // (an empty slice does no work)
+    }
+
+    /**
+     * Count the given units of work about to be done, and return whether or
+     * not the current slice has time remaining. The clock is read only when
+     * enough units have been counted since the last reading.
+     *
+     * @param units units of work (e.g. rollouts)
+     * @return whether or not the current slice has time remaining
+     */
+    public boolean tick(int units) {
+        unitsDone += pendingUnits; // the units counted by the last tick are now done
+        pendingUnits = units;
+        if (unitsDone < checkInterval) {
+            return true;
+        }
+        long now = System.nanoTime();
+        numChecks++;
+        if (unitsDone > 0) { // measure the cost of the units done since the last reading
+            double cost = (double) (now - lastCheck) / unitsDone;
+            nanosPerUnit = nanosPerUnit == 0 ? cost : 0.75 * nanosPerUnit + 0.25 * cost;
+        }
+        lastCheck = now;
+        unitsDone = 0;
+        long remaining = sliceDeadline - now;
+        if (remaining <= 0) {
+            return false;
+        }
+        // read the clock again after about checkNanos of work, or half the remaining time if less
+        checkInterval = nanosPerUnit == 0 ? 1 : Math.max(1, (long) (Math.min(checkNanos, remaining / 2) / nanosPerUnit));
+        return true;
+    }
+
+    /**
+     * Return whether or not the current slice has time remaining, reading the
+     * clock.
+     *
+     * @return whether or not the current slice has time remaining
+     */
+    public boolean hasTime() {
+        numChecks++;
+        return System.nanoTime() < sliceDeadline;
+    }
+
+    /**
+     * Return the time remaining in the budget.
+     *
+     * @return the nanoseconds remaining in the budget (negative if overrun)
+     */
+    public long getRemainingNanos() {
+        return deadline - System.nanoTime();
+    }
+
+    /**
+     * Return the fraction of the budget elapsed.
+     *
+     * @return the fraction of the budget elapsed (1 or more once expired)
+     */
+    public double getElapsedFraction() {
+        long duration = deadline - start;
+        return duration <= 0 ? 1.0 : (double) (System.nanoTime() - start) / duration;
+    }
+
+    /**
+     * Return the deadline of the budget.
+     *
+     * @return System.nanoTime() at the end of the budget
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Return the measured cost per unit of work.
+     *
+     * @return the measured nanoseconds per unit of work (0 if not yet
+     * measured)
+     */
+    public double getNanosPerUnit() {
+        return nanosPerUnit;
+    }
+
+    /**
+     * Return the number of clock readings so far.
+     *
+     * @return the number of clock readings
+     */
+    public long getNumChecks() {
+        return numChecks;
+    }
+
+    /**
+     * Run greedy rollouts for the candidate plays of a late decision in equal
+     * slices of a 2 ms budget, first with a millisecond clock read after
+     * every rollout, then with a TimeBudget, reporting rollouts, clock
+     * readings and deadline overrun.
+     *
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        OurPlayer player = new OurPlayer(PokerSquares.SIZE * PokerSquares.SIZE, 0);
+        player.setPointSystem(PokerSquaresPointSystem.getAmericanPointSystem(), 0);
+        player.setRolloutBatchSize(0);
+        player.init();
+        Card[] deck = Card.getAllCards();
+        int numPlays = 20;
+        for (int i = 0; i < numPlays; i++) {
+            player.getPlay(deck[i * 2], 1000);
+        }
+        int numCandidates = PokerSquares.SIZE * PokerSquares.SIZE - numPlays;
+        long budgetMillis = 2;
+        for (int round = 0; round < 5; round++) {
+            // milliseconds: the per-candidate slice rounds down to 0 ms
+            long millisPerCandidate = budgetMillis / numCandidates;
+            long start = System.nanoTime();
+            int numRollouts = 0;
+            long numChecks = 0;
+            for (int i = 0; i < numCandidates; i++) {
+                long endTime = System.currentTimeMillis() + millisPerCandidate;
+                while (System.currentTimeMillis() < endTime) {
+                    numChecks++;
+                    player.simGreedyPlay(PokerSquares.SIZE * PokerSquares.SIZE);
+                    numRollouts++;
+                }
+                numChecks++;
+            }
+            long millisNanos = System.nanoTime() - start;
+            // nanoseconds with amortized checks
+            TimeBudget budget = new TimeBudget();
+            budget.start(millisToNanos(budgetMillis));
+            int numBudgetRollouts = 0;
+            for (int i = 0; i < numCandidates; i++) {
+                budget.startSlice(numCandidates - i);
+                while (budget.tick(1)) {
+                    player.simGreedyPlay(PokerSquares.SIZE * PokerSquares.SIZE);
+                    numBudgetRollouts++;
+                }
+            }
+            System.out.printf("ms clock: %4d rollouts, %4d checks, %6.3f ms | TimeBudget: %4d rollouts, %3d checks, "
+                    + "overrun %6.3f ms\n", numRollouts, numChecks, millisNanos / 1e6, numBudgetRollouts,
+                    budget.getNumChecks(), -budget.getRemainingNanos() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * TranspositionTable - Fixed-size table of state value estimates and visit
+ * counts, held off the Java heap in a direct ByteBuffer so that its memory is
+ * bounded when it is created and it adds nothing to garbage collection.
+ *
+ * States are keyed by a 64-bit hash, normally GameState.getCanonicalHash(), so
+ * that states equivalent under row, column and suit permutation share one
+ * entry. Each key hashes to a bucket of a few entries that is searched by
+ * linear probing. When a bucket is full, the entry of an older generation (see
+ * newGeneration()) with the fewest visits is replaced.
+ *
+ * Entries are laid out as the key (long), mean value (double), visit count
+ * (int) and generation (int). A key of zero marks an empty entry, so a zero
+ * key is stored as one. Instances are not thread safe; use one per player or
+ * thread.
+ */
+public class TranspositionTable {
+
+    private static final int KEY_OFFSET = 0; // entry offset of the key
+    private static final int MEAN_OFFSET = 8; // entry offset of the mean value
+    private static final int VISITS_OFFSET = 16; // entry offset of the visit count
+    private static final int GENERATION_OFFSET = 20; // entry offset of the generation
+    private static final int ENTRY_BYTES = 24; // bytes per entry
+    private static final int BUCKET_ENTRIES = 4; // entries probed per key
+    private static final int BUCKET_BYTES = BUCKET_ENTRIES * ENTRY_BYTES; // bytes per bucket
+    private final ByteBuffer buffer; // entries
+    private final int bucketMask; // number of buckets minus one (a power of two)
+    private int generation = 0; // current generation
+    private int size = 0; // number of non-empty entries
+    private long hits = 0, misses = 0, evictions = 0; // probe and replacement counters
+
+    /**
+     * Create an empty table using at most the given number of bytes.
+     *
+     * @param maxBytes maximum memory of the table in bytes (at least one
+     * bucket of 96 bytes is always allocated)
+     */
+    public TranspositionTable(long maxBytes) {
+        long numBuckets = Long.highestOneBit(Math.max(1, Math.min(maxBytes, Integer.MAX_VALUE) / BUCKET_BYTES));
+        bucketMask = (int) numBuckets - 1;
+        buffer = ByteBuffer.allocateDirect((int) numBuckets * BUCKET_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Remove all entries and reset the counters.
+     */
+    public void clear() {
+        for (int offset = 0; offset < buffer.capacity(); offset += ENTRY_BYTES) {
+            buffer.putLong(offset + KEY_OFFSET, 0L);
+        }
+        generation = 0;
+        size = 0;
+        hits = misses = evictions = 0;
+    }
+
+    /**
+     * Begin a new generation (e.g. at each new move). Entries stored or
+     * updated in earlier generations are replaced before those of the current
+     * generation.
+     */
+    public void newGeneration() {
+        generation++;
+    }
+
+    private static long storedKey(long key) {
+        return key == 0L ? 1L : key;
+    }
+
+    private int getBucket(long key) {
+        return ((int) (key ^ (key >>> 32)) & bucketMask) * BUCKET_BYTES;
+    }
+
+    private int find(long key) {
+        int bucket = getBucket(key);
+        for (int offset = bucket; offset < bucket + BUCKET_BYTES; offset += ENTRY_BYTES) {
+            if (buffer.getLong(offset + KEY_OFFSET) == key) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Look up the entry of the given key, counting a hit or a miss.
+     *
+     * @param key state hash
+     * @return the entry of the key, for getMean(int) and getVisits(int), or
+     * -1 if the key is not in the table
+     */
+    public int probe(long key) {
+        int entry = find(storedKey(key));
+        if (entry < 0) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Return the mean value of an entry found by probe(long).
+     *
+     * @param entry entry returned by probe(long)
+     * @return the mean value of the entry
+     */
+    public double getMean(int entry) {
+        return buffer.getDouble(entry + MEAN_OFFSET);
+    }
+
+    /**
+     * Return the visit count of an entry found by probe(long).
+     *
+     * @param entry entry returned by probe(long)
+     * @return the visit count of the entry
+     */
+    public int getVisits(int entry) {
+        return buffer.getInt(entry + VISITS_OFFSET);
+    }
+
+    /**
+     * Return the entry of the given key, replacing an empty entry or else the
+     * least valuable entry of its bucket if the key is not in the table.
+     */
+    private int findOrReplace(long key) {
+        int bucket = getBucket(key);
+        int victim = -1;
+        long victimPriority = Long.MAX_VALUE;
+        for (int offset = bucket; offset < bucket + BUCKET_BYTES; offset += ENTRY_BYTES) {
+            long entryKey = buffer.getLong(offset + KEY_OFFSET);
+            if (entryKey == key) {
+                return offset;
+            }
+            // empty entries first, then earlier generations, then fewer visits
+            long priority = entryKey == 0L ? Long.MIN_VALUE
+                    : ((long) buffer.getInt(offset + GENERATION_OFFSET) << 32) + buffer.getInt(offset + VISITS_OFFSET);
+            if (priority < victimPriority) {
+                victim = offset;
+                victimPriority = priority;
+            }
+        }
+        if (buffer.getLong(victim + KEY_OFFSET) == 0L) {
+            size++;
+        } else {
+            evictions++;
+        }
+        buffer.putLong(victim + KEY_OFFSET, key);
+        buffer.putDouble(victim + MEAN_OFFSET, 0.0);
+        buffer.putInt(victim + VISITS_OFFSET, 0);
+        return victim;
+    }
+
+    /**
+     * Store the given value estimate and visit count for the given key,
+     * replacing any previous estimate.
+     *
+     * @param key state hash
+     * @param mean mean value
+     * @param visits visit count
+     */
+    public void store(long key, double mean, int visits) {
+        int entry = findOrReplace(storedKey(key));
+        buffer.putDouble(entry + MEAN_OFFSET, mean);
+        buffer.putInt(entry + VISITS_OFFSET, visits);
+        buffer.putInt(entry + GENERATION_OFFSET, generation);
+    }
+
+    /**
+     * Add one observed value (e.g. a rollout score) to the running mean of the
+     * given key.
+     *
+     * @param key state hash
+     * @param value observed value
+     */
+    public void update(long key, double value) {
+        int entry = findOrReplace(storedKey(key));
+        int visits = buffer.getInt(entry + VISITS_OFFSET) + 1;
+        double mean = buffer.getDouble(entry + MEAN_OFFSET);
+        buffer.putDouble(entry + MEAN_OFFSET, mean + (value - mean) / visits);
+        buffer.putInt(entry + VISITS_OFFSET, visits);
+        buffer.putInt(entry + GENERATION_OFFSET, generation);
+    }
+
+    /**
+     * Return the number of entries the table can hold.
+     *
+     * @return the capacity in entries
+     */
+    public int getCapacity() {
+        return buffer.capacity() / ENTRY_BYTES;
+    }
+
+    /**
+     * Return the number of non-empty entries.
+     *
+     * @return the number of non-empty entries
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Return the number of probes that found their key.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of probes that did not find their key.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Return the number of entries replaced by entries of other keys.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Check that canonical hashes are invariant under random row, column,
+     * suit permutations and transposition, and distinguish two inequivalent
+     * grids that color refinement cannot, then probe and store every state
+     * reachable by placing the first three cards of a deal, keyed by Zobrist
+     * and by canonical hash, and report the table counters of each.
+     *
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        int size = PokerSquares.SIZE;
+        Random random = new Random(0);
+        Card[] deck = Card.getAllCards();
+
+        // check invariance
+        int numMismatches = 0;
+        int numTrials = 10000;
+        int[] rowPerm = new int[size], colPerm = new int[size], suitPerm = new int[Card.NUM_SUITS];
+        for (int trial = 0; trial < numTrials; trial++) {
+            shuffle(deck, random);
+            GameState state = GameState.EMPTY;
+            int numCards = random.nextInt(size * size + 1);
+            for (int i = 0; i < numCards; i++) {
+                int pos;
+                do {
+                    pos = random.nextInt(size * size);
+                } while (!state.isEmpty(pos / size, pos % size));
+                state = state.play(deck[i], pos / size, pos % size);
+            }
+            boolean drawn = random.nextBoolean(); // whether a card is drawn but not yet placed
+            if (drawn) {
+                state = state.deal(deck[numCards]);
+            }
+            permutation(rowPerm, random);
+            permutation(colPerm, random);
+            permutation(suitPerm, random);
+            boolean transpose = random.nextBoolean();
+            GameState image = GameState.EMPTY;
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    Card card = state.getCard(row, col);
+                    if (card != null) {
+                        Card newCard = Card.getCard(suitPerm[card.getSuit()] * Card.NUM_RANKS + card.getRank());
+                        image = transpose ? image.play(newCard, colPerm[col], rowPerm[row])
+                                : image.play(newCard, rowPerm[row], colPerm[col]);
+                    }
+                }
+            }
+            if (drawn) {
+                Card card = deck[numCards];
+                image = image.deal(Card.getCard(suitPerm[card.getSuit()] * Card.NUM_RANKS + card.getRank()));
+            }
+            if (state.getCanonicalHash() != image.getCanonicalHash()) {
+                numMismatches++;
+            }
+        }
+        System.out.println(numTrials + " permuted states, canonical hash mismatches: " + numMismatches);
+
+        // two 4-cycles of cards linked by rows and columns versus one 8-cycle: every card sees alike neighbors
+        String[][] cycles = {{"AC", "0 0", "KC", "0 1", "KD", "1 0", "AD", "1 1", "AH", "2 2", "KH", "2 3", "KS", "3 2", "AS", "3 3"},
+            {"AC", "0 0", "KC", "0 1", "AD", "1 1", "KD", "1 2", "AH", "2 2", "KH", "2 3", "AS", "3 3", "KS", "3 0"}};
+        long[] cycleHashes = new long[cycles.length];
+        for (int c = 0; c < cycles.length; c++) {
+            GameState state = GameState.EMPTY;
+            for (int i = 0; i < cycles[c].length; i += 2) {
+                String[] position = cycles[c][i + 1].split(" ");
+                state = state.play(Card.getCard(cycles[c][i]), Integer.parseInt(position[0]), Integer.parseInt(position[1]));
+            }
+            cycleHashes[c] = state.getCanonicalHash();
+        }
+        System.out.printf("two 4-cycles %016x, one 8-cycle %016x: %s\n", cycleHashes[0], cycleHashes[1],
+                cycleHashes[0] != cycleHashes[1] ? "distinct" : "COLLISION");
+
+        // transpositions of the opening
+        shuffle(deck, random);
+        System.out.println("Opening cards: " + deck[0] + " " + deck[1] + " " + deck[2]);
+        for (int mode = 0; mode < 2; mode++) {
+            boolean canonical = mode == 1;
+            TranspositionTable table = new TranspositionTable(1 << 16);
+            int numStates = 0;
+            for (int pos0 = 0; pos0 < size * size; pos0++) {
+                GameState state0 = GameState.EMPTY.play(deck[0], pos0 / size, pos0 % size);
+                for (int pos1 = 0; pos1 < size * size; pos1++) {
+                    if (pos1 == pos0) {
+                        continue;
+                    }
+                    GameState state1 = state0.play(deck[1], pos1 / size, pos1 % size);
+                    for (int pos2 = 0; pos2 < size * size; pos2++) {
+                        if (pos2 == pos0 || pos2 == pos1) {
+                            continue;
+                        }
+                        GameState state2 = state1.play(deck[2], pos2 / size, pos2 % size);
+                        long key = canonical ? state2.getCanonicalHash() : state2.getHash();
+                        if (table.probe(key) < 0) {
+                            table.store(key, 0.0, 1);
+                        }
+                        numStates++;
+                    }
+                }
+            }
+            System.out.printf("%-9s keys: %d states, %d hits, %d misses, %d evictions, %d of %d entries used\n",
+                    canonical ? "canonical" : "Zobrist", numStates, table.getHits(), table.getMisses(),
+                    table.getEvictions(), table.getSize(), table.getCapacity());
+        }
+    }
+
+    private static void shuffle(Card[] deck, Random random) {
+        for (int i = deck.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Card tmp = deck[i];
+            deck[i] = deck[j];
+            deck[j] = tmp;
+        }
+    }
+
+    private static void permutation(int[] perm, Random random) {
+        for (int i = 0; i < perm.length; i++) {
+            perm[i] = i;
+        }
+        for (int i = perm.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = perm[i];
+            perm[i] = perm[j];
+            perm[j] = tmp;
+        }
+    }
+}